@@ -0,0 +1,50 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Отдаёт подписку на ленту как поток Server-Sent Events. Событие отправляется с id, равным eventId, поэтому клиент
+ * при переподключении передаёт последний полученный id в заголовке Last-Event-ID.
+ */
+@Component
+public class FeedStreamEmitter {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1_800_000;
+
+    private final long timeoutMillis;
+
+    public FeedStreamEmitter(@Value("${filmorate.feed.stream.timeout-ms:" + DEFAULT_TIMEOUT_MILLIS + "}")
+                             long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public SseEmitter stream(Function<FeedSubscriptions.Sink, FeedSubscriptions.Subscription> subscribe) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        FeedSubscriptions.Subscription subscription = subscribe.apply(new FeedSubscriptions.Sink() {
+            @Override
+            public void send(Feed feed) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(feed.getEventId()))
+                        .name("feed")
+                        .data(feed, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+}
@@ -1,12 +1,20 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.ImportReport;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.Suggestion;
 import ru.yandex.practicum.filmorate.service.film.FilmService.FilmService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RequiredArgsConstructor
@@ -15,13 +23,27 @@ import java.util.List;
 @RequestMapping("/films")
 public class FilmController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final FilmService filmService;
+    private final JsonExportWriter jsonExportWriter;
+    private final NdjsonImportReader ndjsonImportReader;
 
     @PostMapping
     public Film addFilm(@RequestBody @Valid Film film) {
         return filmService.addFilm(film);
     }
 
+    @PostMapping("/bulk")
+    public ImportReport addFilms(InputStream body) throws IOException {
+        return ndjsonImportReader.read(body, Film.class, filmService::addFilms);
+    }
+
+    @PostMapping("/likes/bulk")
+    public ImportReport addLikes(InputStream body) throws IOException {
+        return ndjsonImportReader.read(body, Like.class, filmService::addLikes);
+    }
+
     @PutMapping
     public Film updateFilm(@RequestBody @Valid Film film) {
         return filmService.updateFilm(film);
@@ -33,8 +55,19 @@ public class FilmController {
     }
 
     @GetMapping
-    public List<Film> getFilms() {
-        return filmService.getFilms();
+    public ResponseEntity<List<Film>> getFilms(@RequestParam(defaultValue = "0") int afterId,
+                                               @RequestParam(required = false) Integer limit) {
+        Page<Film> page = filmService.getFilms(afterId, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportFilms(@RequestParam(defaultValue = "json") String format) {
+        return jsonExportWriter.export(format, filmService::exportFilms);
     }
 
     @PutMapping("/{id}/like/{userId}")
@@ -61,6 +94,12 @@ public class FilmController {
         return filmService.deleteFilmById(id);
     }
 
+    @GetMapping("/{id}/similar")
+    public List<Film> getSimilarFilms(@PathVariable int id,
+                                      @RequestParam(defaultValue = "10") int count) {
+        return filmService.getSimilarFilms(id, count);
+    }
+
     @GetMapping("/common")
     public List<Film> getCommonFilms(@RequestParam int userId, @RequestParam int friendId) {
         return filmService.getCommonFilms(userId, friendId);
@@ -77,4 +116,10 @@ public class FilmController {
                                                       @RequestParam(value = "by") String by) {
         return filmService.getFilmsByNameOrNameAndDirector(query, by);
     }
+
+    @GetMapping("/search/suggest")
+    public List<Suggestion> getSuggestions(@RequestParam String prefix,
+                                           @RequestParam(defaultValue = "10") int limit) {
+        return filmService.getSuggestions(prefix, limit);
+    }
 }
@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Потоковая выгрузка в виде JSON-массива или NDJSON (один объект на строку).
+ * Каждый объект сериализуется в ответ сразу после чтения из базы, список целиком в памяти не собирается.
+ */
+@Component
+@RequiredArgsConstructor
+public class JsonExportWriter {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final ObjectMapper objectMapper;
+
+    public <T> ResponseEntity<StreamingResponseBody> export(String format, Consumer<Consumer<T>> source) {
+        boolean ndjson = isNdjson(format);
+        StreamingResponseBody body = outputStream -> {
+            try (SequenceWriter writer = ndjson
+                    ? objectMapper.writer().withRootValueSeparator("\n").writeValues(outputStream)
+                    : objectMapper.writer().writeValuesAsArray(outputStream)) {
+                source.accept(value -> {
+                    try {
+                        writer.write(value);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    private static boolean isNdjson(String format) {
+        if ("ndjson".equalsIgnoreCase(format)) {
+            return true;
+        }
+        if ("json".equalsIgnoreCase(format)) {
+            return false;
+        }
+        throw new ValidationException("Формат выгрузки должен быть json или ndjson.");
+    }
+}
@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.metrics.StorageMetrics.StorageMetrics;
+
+@RequiredArgsConstructor
+@RestController
+public class MetricsController {
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StorageMetrics storageMetrics;
+    private final FilmCache filmCache;
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_CONTENT_TYPE)
+    public String getMetrics() {
+        return storageMetrics.scrape(filmCache);
+    }
+}
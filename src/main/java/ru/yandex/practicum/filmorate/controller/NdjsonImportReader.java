@@ -0,0 +1,136 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.ImportReport;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Потоковая загрузка NDJSON (один объект на строку). Строки разбираются и проверяются по одной, корректные
+ * собираются в пачки по batchSize и передаются загрузчику, который пишет пачку одним JDBC batch в своей транзакции.
+ * Ошибка записи пачки не откатывает уже записанные, а сама пачка дописывается по одной строке, чтобы отклонить
+ * только сломанные. Ошибки разбора, проверки и записи попадают в отчёт с номерами строк.
+ */
+@Component
+@Slf4j
+public class NdjsonImportReader {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int batchSize;
+
+    public NdjsonImportReader(ObjectMapper objectMapper, Validator validator,
+                              @Value("${filmorate.import.batch-size:" + DEFAULT_BATCH_SIZE + "}") int batchSize) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Читает поток до конца. Загрузчик получает пачку и возвращает ошибки по позициям в ней,
+     * строки без ошибок считаются записанными.
+     */
+    public <T> ImportReport read(InputStream inputStream, Class<T> type,
+                                 Function<List<T>, Map<Integer, String>> loader) throws IOException {
+        ImportReport report = new ImportReport();
+        ObjectReader reader = objectMapper.readerFor(type);
+        List<T> batch = new ArrayList<>(batchSize);
+        List<Integer> lines = new ArrayList<>(batchSize);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                T value;
+                try {
+                    value = reader.readValue(line);
+                } catch (JsonProcessingException e) {
+                    report.addError(lineNumber, "Некорректный JSON: " + e.getOriginalMessage());
+                    continue;
+                }
+                String violations = validate(value);
+                if (violations != null) {
+                    report.addError(lineNumber, violations);
+                    continue;
+                }
+                batch.add(value);
+                lines.add(lineNumber);
+                if (batch.size() == batchSize) {
+                    load(batch, lines, loader, report);
+                }
+            }
+        }
+        load(batch, lines, loader, report);
+        report.getErrors().sort(Comparator.comparingInt(ImportReport.LineError::getLine));
+        log.info("Загрузка {} завершена: записано {}, отклонено {}.", type.getSimpleName(), report.getImported(),
+                report.getFailed());
+        return report;
+    }
+
+    private <T> String validate(T value) {
+        if (value == null) {
+            return "Строка не содержит объекта.";
+        }
+        Set<ConstraintViolation<T>> violations = validator.validate(value);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+
+    private <T> void load(List<T> batch, List<Integer> lines, Function<List<T>, Map<Integer, String>> loader,
+                          ImportReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Integer, String> errors = loader.apply(batch);
+            for (int i = 0; i < lines.size(); i++) {
+                String error = errors.get(i);
+                if (error != null) {
+                    report.addError(lines.get(i), error);
+                }
+            }
+            report.addImported(batch.size() - errors.size());
+        } catch (DataAccessException e) {
+            if (batch.size() == 1) {
+                report.addError(lines.get(0), "Строка не записана: " + e.getMostSpecificCause().getMessage());
+            } else {
+                log.warn("Пачка из {} строк не записалась, строки будут записаны по одной.", batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    load(new ArrayList<>(List.of(batch.get(i))), new ArrayList<>(List.of(lines.get(i))), loader,
+                            report);
+                }
+            }
+        }
+        batch.clear();
+        lines.clear();
+    }
+}
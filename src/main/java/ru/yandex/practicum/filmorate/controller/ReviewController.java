@@ -1,8 +1,10 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.service.review.ReviewService.ReviewService;
 
@@ -33,9 +35,15 @@ public class ReviewController {
     }
 
     @GetMapping
-    public List<Review> getReviewOfFilm(@RequestParam(required = false) Integer filmId,
-                                        @RequestParam(defaultValue = "10") Integer count) {
-        return reviewService.getReviewOfFilm(filmId, count);
+    public ResponseEntity<List<Review>> getReviewOfFilm(@RequestParam(required = false) Integer filmId,
+                                                        @RequestParam(required = false) String cursor,
+                                                        @RequestParam(defaultValue = "10") int count) {
+        Page<Review> page = reviewService.getReviewOfFilm(filmId, cursor, count);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(FilmController.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
     }
 
     @DeleteMapping("/{id}")
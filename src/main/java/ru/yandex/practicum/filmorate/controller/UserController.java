@@ -1,15 +1,24 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.model.Feed;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.ImportReport;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.RecommendationStats;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.feed.FeedService.FeedService;
 import ru.yandex.practicum.filmorate.service.user.UserService.UserService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RequiredArgsConstructor
@@ -20,20 +29,34 @@ public class UserController {
 
     private final UserService userService;
     private final FeedService feedService;
+    private final FeedStreamEmitter feedStreamEmitter;
+    private final JsonExportWriter jsonExportWriter;
+    private final NdjsonImportReader ndjsonImportReader;
 
     @PostMapping
     public User addUser(@RequestBody @Valid User user) {
         return userService.addUser(user);
     }
 
+    @PostMapping("/bulk")
+    public ImportReport addUsers(InputStream body) throws IOException {
+        return ndjsonImportReader.read(body, User.class, userService::addUsers);
+    }
+
     @PutMapping
     public User updateUser(@RequestBody @Valid User user) {
         return userService.updateUser(user);
     }
 
     @GetMapping
-    public List<User> getUsers() {
-        return userService.getUsersOutStorage();
+    public ResponseEntity<List<User>> getUsers(@RequestParam(defaultValue = "0") int afterId,
+                                               @RequestParam(required = false) Integer limit) {
+        return toResponse(userService.getUsers(afterId, limit));
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(defaultValue = "json") String format) {
+        return jsonExportWriter.export(format, userService::exportUsers);
     }
 
     @GetMapping("/{id}")
@@ -58,6 +81,12 @@ public class UserController {
         return userService.getFriendsOfUser(id);
     }
 
+    @GetMapping("/{id}/friends/suggestions")
+    public List<User> getFriendSuggestions(@PathVariable int id,
+                                           @RequestParam(defaultValue = "10") int count) {
+        return userService.getFriendSuggestions(id, count);
+    }
+
     @GetMapping("/{id}/friends/common/{otherId}")
     public List<User> getCommonFriends(@PathVariable int id,
                                        @PathVariable int otherId) {
@@ -70,12 +99,40 @@ public class UserController {
     }
 
     @GetMapping("/{id}/feed")
-    public List<Feed> getFeedByUserId(@PathVariable int id) {
-        return feedService.getFeedByUserId(id);
+    public ResponseEntity<List<Feed>> getFeedByUserId(@PathVariable int id,
+                                                      @RequestParam(required = false) Integer beforeEventId,
+                                                      @RequestParam(required = false) Integer limit) {
+        return toResponse(feedService.getFeedByUserId(id, beforeEventId, limit));
+    }
+
+    @GetMapping(path = "/{id}/feed/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFeed(@PathVariable int id,
+                                 @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId) {
+        return feedStreamEmitter.stream(sink -> feedService.subscribe(id, lastEventId, sink));
+    }
+
+    @GetMapping("/{id}/timeline")
+    public ResponseEntity<List<Feed>> getTimeline(@PathVariable int id,
+                                                  @RequestParam(required = false) Integer beforeEventId,
+                                                  @RequestParam(required = false) Integer limit) {
+        return toResponse(feedService.getTimeline(id, beforeEventId, limit));
     }
 
     @GetMapping("/{id}/recommendations")
     public List<Film> getRecommendations(@PathVariable int id) {
         return userService.getRecommendationsFilms(id);
     }
+
+    @GetMapping("/recommendations/stats")
+    public RecommendationStats getRecommendationStats() {
+        return userService.getRecommendationStats();
+    }
+
+    private static <T> ResponseEntity<List<T>> toResponse(Page<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(FilmController.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
 }
@@ -1,21 +1,37 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmSuggestions.FilmSuggestions;
 
 import java.util.List;
 import java.util.Map;
 
 @Repository
-@RequiredArgsConstructor
 public class DirectorDbStorage implements DirectorStorage {
 
     private final JdbcTemplate jdbcTemplate;
+    private final FilmSearchIndex filmSearchIndex;
+    private final FilmSuggestions filmSuggestions;
+
+    @Autowired
+    public DirectorDbStorage(JdbcTemplate jdbcTemplate, FilmSearchIndex filmSearchIndex,
+                             FilmSuggestions filmSuggestions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmSearchIndex = filmSearchIndex;
+        this.filmSuggestions = filmSuggestions;
+    }
+
+    public DirectorDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FilmSearchIndex(jdbcTemplate),
+                new FilmSuggestions(jdbcTemplate, FilmSuggestions.DEFAULT_TOP_SIZE));
+    }
 
     private RowMapper<Director> getDirectorMapper() {
         return ((rs, rowNum) -> new Director(rs.getInt("director_id"), rs.getString("name")));
@@ -30,6 +46,8 @@ public class DirectorDbStorage implements DirectorStorage {
             int id = simpleDirectorInsert.executeAndReturnKey(
                     Map.of("name", director.getName())).intValue();
             director.setId(id);
+            filmSearchIndex.putDirector(id, director.getName());
+            filmSuggestions.putDirector(id, director.getName());
         }
         return director;
     }
@@ -39,6 +57,8 @@ public class DirectorDbStorage implements DirectorStorage {
         if (director != null && getDirector(director.getId()) != null) {
             jdbcTemplate.update("UPDATE directors set name = ? WHERE director_id = ?;", director.getName(),
                     director.getId());
+            filmSearchIndex.putDirector(director.getId(), director.getName());
+            filmSuggestions.putDirector(director.getId(), director.getName());
             return getDirector(director.getId());
         }
         return director;
@@ -58,6 +78,8 @@ public class DirectorDbStorage implements DirectorStorage {
     public boolean deleteDirector(int id) {
         if (getDirector(id) != null) {
             jdbcTemplate.update("DELETE FROM directors WHERE director_id = ?;", id);
+            filmSearchIndex.removeDirector(id);
+            filmSuggestions.removeDirector(id);
             return true;
         }
         return false;
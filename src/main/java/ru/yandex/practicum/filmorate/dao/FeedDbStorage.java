@@ -1,46 +1,138 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
 import ru.yandex.practicum.filmorate.model.Feed;
 import ru.yandex.practicum.filmorate.storage.feed.FeedStorage.FeedStorage;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
+import ru.yandex.practicum.filmorate.storage.feed.FeedTimeline.FeedTimeline;
+import ru.yandex.practicum.filmorate.storage.feed.FeedWriter.FeedWriter;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 @Repository
-@RequiredArgsConstructor
 public class FeedDbStorage implements FeedStorage {
 
     private final JdbcTemplate jdbcTemplate;
+    private final FeedWriter feedWriter;
+    private final FeedTimeline feedTimeline;
+    private final FeedSubscriptions feedSubscriptions;
+    /**
+     * Дожидаться записи отложенных событий перед чтением ленты, чтобы пользователь видел свои последние действия.
+     */
+    private final boolean readYourWrites;
+
+    @Autowired
+    public FeedDbStorage(JdbcTemplate jdbcTemplate, FeedWriter feedWriter, FeedTimeline feedTimeline,
+                         FeedSubscriptions feedSubscriptions,
+                         @Value("${filmorate.feed.read-your-writes:true}") boolean readYourWrites) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.feedWriter = feedWriter;
+        this.feedTimeline = feedTimeline;
+        this.feedSubscriptions = feedSubscriptions;
+        this.readYourWrites = readYourWrites;
+    }
+
+    public FeedDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FriendGraph(jdbcTemplate, FriendGraph.DEFAULT_FAN_OUT));
+    }
+
+    public FeedDbStorage(JdbcTemplate jdbcTemplate, FriendGraph friendGraph) {
+        this(jdbcTemplate, new FeedTimeline(jdbcTemplate, friendGraph, FeedTimeline.DEFAULT_CAPACITY,
+                FeedTimeline.DEFAULT_CELEBRITY_FOLLOWERS), new FeedSubscriptions(FeedSubscriptions.DEFAULT_BUFFER_SIZE,
+                FeedSubscriptions.DEFAULT_DISPATCH_THREADS));
+    }
+
+    private FeedDbStorage(JdbcTemplate jdbcTemplate, FeedTimeline feedTimeline, FeedSubscriptions feedSubscriptions) {
+        this(jdbcTemplate, new FeedWriter(jdbcTemplate, feedTimeline, feedSubscriptions, FeedWriter.DEFAULT_CAPACITY,
+                        FeedWriter.DEFAULT_BATCH_SIZE, FeedWriter.DEFAULT_FLUSH_INTERVAL_MILLIS), feedTimeline,
+                feedSubscriptions, true);
+    }
 
     @Override
     public void createFeed(Feed feed) {
         if (feed != null) {
-            SimpleJdbcInsert feedInsert = new SimpleJdbcInsert(jdbcTemplate)
-                    .withTableName("feed")
-                    .usingGeneratedKeyColumns("event_id");
-            int id = feedInsert.executeAndReturnKey(
-                    Map.of(
-                            "timestamp", feed.getTimestamp(),
-                            "user_id", feed.getUserId(),
-                            "event_type", feed.getEventType(),
-                            "operation", feed.getOperation(),
-                            "entity_id", feed.getEntityId()
-                    )).intValue();
-            feed.setEventId(id);
+            feedWriter.submit(feed);
+        }
+    }
+
+    @Override
+    public List<Feed> getFeedByUserId(int id, Integer beforeEventId, int limit) {
+        if (readYourWrites) {
+            feedWriter.flush();
         }
+        // Порядок сортировки совпадает с индексом feed_user_idx (user_id, event_id DESC): страница читается
+        // из индекса подряд и не требует сортировки всей истории пользователя.
+        List<Feed> feeds = jdbcTemplate.query("SELECT* FROM feed WHERE user_id = ? AND event_id < ? " +
+                        "ORDER BY user_id, event_id DESC LIMIT ?;",
+                getFeedMapper(), id, beforeEventId == null ? Integer.MAX_VALUE : beforeEventId, limit);
+        if (feeds.isEmpty() && !userExists(id)) {
+            throw new ObjectNotFoundException("Пользователь с id = " + id + " не найден.");
+        }
+        return feeds;
+    }
+
+    /**
+     * Собирает страницу ленты друзей из входящих пользователя и событий друзей-знаменитостей, которые во входящие
+     * не копируются. Каждый источник читается по своему индексу не больше чем на limit событий.
+     */
+    @Override
+    public List<Feed> getTimeline(int id, Integer beforeEventId, int limit) {
+        if (readYourWrites) {
+            feedWriter.flush();
+        }
+        int before = beforeEventId == null ? Integer.MAX_VALUE : beforeEventId;
+        List<Feed> feeds = jdbcTemplate.query("SELECT f.* FROM timeline AS t " +
+                        "JOIN feed AS f ON f.event_id = t.event_id WHERE t.user_id = ? AND t.event_id < ? " +
+                        "ORDER BY t.user_id, t.event_id DESC LIMIT ?;",
+                getFeedMapper(), id, before, limit);
+        List<Integer> celebrityIds = feedTimeline.getCelebrityFriendIds(id);
+        if (!celebrityIds.isEmpty()) {
+            // Событие, записанное до того, как автор стал знаменитостью, может оказаться и во входящих.
+            Map<Integer, Feed> merged = new TreeMap<>(Comparator.reverseOrder());
+            feeds.forEach(feed -> merged.put(feed.getEventId(), feed));
+            for (int celebrityId : celebrityIds) {
+                jdbcTemplate.query("SELECT* FROM feed WHERE user_id = ? AND event_id < ? " +
+                                "ORDER BY user_id, event_id DESC LIMIT ?;", getFeedMapper(), celebrityId, before, limit)
+                        .forEach(feed -> merged.putIfAbsent(feed.getEventId(), feed));
+            }
+            feeds = merged.values().stream().limit(limit).collect(Collectors.toList());
+        }
+        if (feeds.isEmpty() && !userExists(id)) {
+            throw new ObjectNotFoundException("Пользователь с id = " + id + " не найден.");
+        }
+        return feeds;
     }
 
     @Override
-    public List<Feed> getFeedByUserId(int id) {
-        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
-        userDbStorage.getUser(id);
-        return jdbcTemplate.query("SELECT* FROM feed WHERE user_id = ?;",
-                getFeedMapper(), id);
+    public FeedSubscriptions.Subscription subscribe(int id, Integer lastEventId, FeedSubscriptions.Sink sink) {
+        if (!userExists(id)) {
+            throw new ObjectNotFoundException("Пользователь с id = " + id + " не найден.");
+        }
+        return feedSubscriptions.subscribe(id, lastEventId, sink, (afterEventId, limit) ->
+                jdbcTemplate.query("SELECT* FROM feed WHERE user_id = ? AND event_id > ? " +
+                        "ORDER BY user_id, event_id LIMIT ?;", getFeedMapper(), id, afterEventId, limit));
+    }
+
+    /**
+     * Убирает из ленты друзей пользователя события того, кого он удалил из друзей.
+     */
+    public void removeFriendEvents(int id, int friendId) {
+        feedTimeline.removeFriend(id, friendId);
+    }
+
+    private boolean userExists(int id) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM users " +
+                "WHERE user_id = ?);", Boolean.class, id));
     }
 
     private RowMapper<Feed> getFeedMapper() {
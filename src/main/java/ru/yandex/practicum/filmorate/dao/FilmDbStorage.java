@@ -1,124 +1,177 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.yandex.practicum.filmorate.enums.EventTypes;
 import ru.yandex.practicum.filmorate.enums.Operations;
 import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
 import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.director.DirectorStorage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmLeaderboard.FilmLeaderboard;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarity.FilmSimilarity;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSuggestions.FilmSuggestions;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 @Repository
-@RequiredArgsConstructor
 @Slf4j
 public class FilmDbStorage implements FilmStorage {
 
+    private static final int EXPORT_BATCH_SIZE = 500;
+    private static final String FILM_SELECT = "SELECT f.film_id, " +
+            "f.name, " +
+            "f.description, " +
+            "f.release_date, " +
+            "f.duration, " +
+            "f.rating_id " +
+            "FROM films AS f ";
+    private static final String FILM_INSERT = "INSERT INTO films (name, description, release_date, duration, " +
+            "rating_id, like_count) VALUES (?, ?, ?, ?, ?, 0)";
+    private static final String LIKE_INSERT = "INSERT INTO likes (film_id, user_id) " +
+            "SELECT f.film_id, u.user_id FROM films AS f " +
+            "JOIN users AS u ON u.user_id = ? " +
+            "WHERE f.film_id = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?);";
+
     private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceDataRegistry;
+    private final FilmCache filmCache;
+    private final FilmLeaderboard filmLeaderboard;
+    private final FilmSearchIndex filmSearchIndex;
+    private final FilmSuggestions filmSuggestions;
+    private final RecommendationEngine recommendationEngine;
+    private final FilmSimilarity filmSimilarity;
+    private final FeedDbStorage feedDbStorage;
+    private final DirectorStorage directorStorage;
 
-    private Rating createMpa(SqlRowSet ratingRow) throws SQLException {
-        if (ratingRow.next()) {
-            return Rating.builder()
-                    .id(ratingRow.getInt("rating_id"))
-                    .name(ratingRow.getString("name"))
-                    .build();
-        }
-        throw new SQLException();
+    @Autowired
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceDataRegistry, FilmCache filmCache,
+                         FilmLeaderboard filmLeaderboard, FilmSearchIndex filmSearchIndex,
+                         FilmSuggestions filmSuggestions, RecommendationEngine recommendationEngine,
+                         FilmSimilarity filmSimilarity, FeedDbStorage feedDbStorage,
+                         DirectorStorage directorStorage) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.referenceDataRegistry = referenceDataRegistry;
+        this.filmCache = filmCache;
+        this.filmLeaderboard = filmLeaderboard;
+        this.filmSearchIndex = filmSearchIndex;
+        this.filmSuggestions = filmSuggestions;
+        this.recommendationEngine = recommendationEngine;
+        this.filmSimilarity = filmSimilarity;
+        this.feedDbStorage = feedDbStorage;
+        this.directorStorage = directorStorage;
+    }
+
+    public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FilmCache(FilmCache.DEFAULT_CAPACITY), new FilmSearchIndex(jdbcTemplate),
+                new FilmSuggestions(jdbcTemplate, FilmSuggestions.DEFAULT_TOP_SIZE));
+    }
+
+    private FilmDbStorage(JdbcTemplate jdbcTemplate, FilmCache filmCache, FilmSearchIndex filmSearchIndex,
+                          FilmSuggestions filmSuggestions) {
+        this(jdbcTemplate, new ReferenceDataRegistry(jdbcTemplate, filmCache), filmCache,
+                new FilmLeaderboard(jdbcTemplate), filmSearchIndex, filmSuggestions,
+                new RecommendationEngine(jdbcTemplate, RecommendationEngine.DEFAULT_NEIGHBOURS,
+                        RecommendationEngine.DEFAULT_LIMIT),
+                new FilmSimilarity(jdbcTemplate, FilmSimilarity.DEFAULT_TOP_SIZE,
+                FilmSimilarity.DEFAULT_CACHE_CAPACITY), new FeedDbStorage(jdbcTemplate),
+                new DirectorDbStorage(jdbcTemplate, filmSearchIndex, filmSuggestions));
     }
 
     @Override
     public boolean deleteFilmById(int id) {
         if (getFilm(id) != null) {
+            filmSimilarity.removeFilm(id);
             jdbcTemplate.update("DELETE FROM films WHERE film_id = ?", id);
+            filmCache.invalidate(id);
+            filmLeaderboard.removeFilm(id);
+            filmSearchIndex.removeFilm(id);
+            filmSuggestions.removeFilm(id);
+            recommendationEngine.removeFilm(id);
             return true;
         }
         return false;
     }
 
-    private List<Genre> createGenres(SqlRowSet genreRow) {
-        List<Genre> genres = new ArrayList<>();
-        while (genreRow.next()) {
-            String genreIds = genreRow.getString("genre_id");
-            String genreNames = genreRow.getString("name");
-            if (genreIds != null) {
-                String[] ids = genreIds.split(",");
-                String[] names = genreNames.split(",");
-                for (int i = 0; i < ids.length; i++) {
-                    genres.add(Genre.builder()
-                            .id(Integer.parseInt(ids[i]))
-                            .name(names[i])
-                            .build());
-                }
-            }
-        }
-        return genres;
-    }
-
-    private List<Director> createDirector(SqlRowSet directorsRow) {
-        List<Director> directors = new ArrayList<>();
-        while (directorsRow.next()) {
-            String directorIds = directorsRow.getString("director_id");
-            String directorNames = directorsRow.getString("name");
-            if (directorIds != null && directorNames != null) {
-                String[] ids = directorIds.split(",");
-                String[] names = directorNames.split(",");
-                for (int i = 0; i < ids.length; i++) {
-                    directors.add(Director.builder()
-                            .id(Integer.parseInt(ids[i]))
-                            .name(names[i])
-                            .build());
-                }
-            }
-        }
-        return directors;
-    }
-
     private Film createFilm(ResultSet rs, int rowNum) throws SQLException {
-        SqlRowSet ratingRow = jdbcTemplate.queryForRowSet("SELECT f.rating_id AS rating_id, " +
-                "r.name AS name " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "WHERE r.rating_id=f.rating_id AND f.film_id = ?;", rs.getInt("film_id"));
-        SqlRowSet genresRow = jdbcTemplate.queryForRowSet("SELECT g.genre_id AS genre_id, " +
-                "g.name AS name  " +
-                "FROM genres AS g " +
-                "WHERE g.genre_id IN(SELECT fg.genre_id " +
-                "FROM film_genre AS fg " +
-                "LEFT OUTER JOIN films AS f ON f.film_id=fg.film_id " +
-                "LEFT OUTER JOIN genres AS g ON fg.genre_id=g.genre_id " +
-                "WHERE fg.film_id=f.film_id AND f.film_id = ?);", rs.getInt("film_id"));
-        SqlRowSet directorsRow = jdbcTemplate.queryForRowSet("SELECT d.director_id AS director_id, " +
-                "d.name AS name " +
-                "FROM directors AS d " +
-                "WHERE d.director_id IN (SELECT fd.director_id " +
-                "FROM film_director AS fd " +
-                "LEFT OUTER JOIN films AS f ON fd.film_id=f.film_id " +
-                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id " +
-                "WHERE fd.film_id = f.film_id AND f.film_id = ?);", rs.getInt("film_id"));
+        Rating mpa = null;
+        int ratingId = rs.getInt("rating_id");
+        if (!rs.wasNull()) {
+            mpa = referenceDataRegistry.getRating(ratingId);
+        }
         return Film.builder()
                 .id(rs.getInt("film_id"))
                 .name(rs.getString("name"))
                 .description(rs.getString("description"))
                 .releaseDate(rs.getObject("release_date", LocalDate.class))
                 .duration(rs.getInt("duration"))
-                .genres(createGenres(genresRow))
-                .mpa(createMpa(ratingRow))
-                .directors(createDirector(directorsRow))
+                .genres(new ArrayList<>())
+                .mpa(mpa)
+                .directors(new ArrayList<>())
                 .build();
     }
 
+    /**
+     * Догружает жанры и режиссёров сразу для всей выборки фильмов: по одному запросу на каждую связь
+     * вместо нескольких запросов на каждую строку.
+     */
+    private List<Film> hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        Map<Integer, Film> filmsById = new HashMap<>();
+        for (Film film : films) {
+            filmsById.put(film.getId(), film);
+        }
+        Object[] ids = filmsById.keySet().toArray();
+        jdbcTemplate.query("SELECT film_id, " +
+                "genre_id " +
+                "FROM film_genre " +
+                "WHERE film_id = ANY(?) " +
+                "ORDER BY film_id, genre_id;", rs -> {
+            filmsById.get(rs.getInt("film_id")).getGenres()
+                    .add(referenceDataRegistry.getGenre(rs.getInt("genre_id")));
+        }, new Object[]{ids});
+        jdbcTemplate.query("SELECT fd.film_id, " +
+                "d.director_id, " +
+                "d.name " +
+                "FROM film_director AS fd " +
+                "JOIN directors AS d ON fd.director_id=d.director_id " +
+                "WHERE fd.film_id = ANY(?) " +
+                "ORDER BY fd.film_id, d.director_id;", rs -> {
+            filmsById.get(rs.getInt("film_id")).getDirectors().add(Director.builder()
+                    .id(rs.getInt("director_id"))
+                    .name(rs.getString("name"))
+                    .build());
+        }, new Object[]{ids});
+        return films;
+    }
+
     @Override
     public Film addFilm(Film film) {
         if (film != null) {
@@ -131,23 +184,168 @@ public class FilmDbStorage implements FilmStorage {
                             "description", film.getDescription(),
                             "release_date", film.getReleaseDate(),
                             "duration", film.getDuration(),
-                            "rating_id", film.getMpa().getId()
+                            "rating_id", film.getMpa().getId(),
+                            "like_count", 0
                     )).intValue();
             film.setId(id);
-            setGenre(film);
-            setDirectors(film);
+            filmLeaderboard.putFilm(id, film.getReleaseDate(), getGenreIds(setGenre(film)));
+            List<Integer> directorIds = getDirectorIds(setDirectors(film));
+            filmSearchIndex.putFilm(id, film.getName(), directorIds);
+            filmSuggestions.putFilm(id, film.getName(), directorIds);
         }
         return film;
     }
 
+    /**
+     * Загружает пачку фильмов одной транзакцией, по одному batch insert на таблицу. Рейтинги и жанры проверяются
+     * по справочникам в памяти, режиссёры - одним запросом на пачку. Фильмы со ссылками на несуществующие записи
+     * не пишутся, их ошибки возвращаются по позициям в списке.
+     */
+    @Override
+    @Transactional
+    public Map<Integer, String> addFilms(List<Film> films) {
+        Map<Integer, String> errors = new HashMap<>();
+        Set<Integer> directorIds = getExistingDirectorIds(films);
+        List<Film> valid = new ArrayList<>(films.size());
+        for (int i = 0; i < films.size(); i++) {
+            String error = checkReferences(films.get(i), directorIds);
+            if (error == null) {
+                valid.add(films.get(i));
+            } else {
+                errors.put(i, error);
+            }
+        }
+        if (valid.isEmpty()) {
+            return errors;
+        }
+        insertFilms(valid);
+        List<Object[]> genreArgs = new ArrayList<>();
+        List<Object[]> directorArgs = new ArrayList<>();
+        for (Film film : valid) {
+            for (Integer genreId : collectGenreIds(film)) {
+                genreArgs.add(new Object[]{film.getId(), genreId});
+            }
+            for (Integer directorId : collectDirectorIds(film)) {
+                directorArgs.add(new Object[]{film.getId(), directorId});
+            }
+        }
+        if (!genreArgs.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?);", genreArgs);
+        }
+        if (!directorArgs.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO film_director (film_id, director_id) VALUES (?, ?);", directorArgs);
+        }
+        for (Film film : valid) {
+            List<Integer> filmDirectorIds = new ArrayList<>(collectDirectorIds(film));
+            filmLeaderboard.putFilm(film.getId(), film.getReleaseDate(), collectGenreIds(film));
+            filmSearchIndex.putFilm(film.getId(), film.getName(), filmDirectorIds);
+            filmSuggestions.putFilm(film.getId(), film.getName(), filmDirectorIds);
+        }
+        return errors;
+    }
+
+    private void insertFilms(List<Film> films) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(FILM_INSERT, new String[]{"film_id"})) {
+                for (Film film : films) {
+                    ps.setString(1, film.getName());
+                    ps.setString(2, film.getDescription());
+                    ps.setObject(3, film.getReleaseDate());
+                    ps.setObject(4, film.getDuration());
+                    ps.setInt(5, film.getMpa().getId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (int i = 0; i < films.size() && keys.next(); i++) {
+                        films.get(i).setId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private String checkReferences(Film film, Set<Integer> directorIds) {
+        if (film.getMpa() == null || film.getMpa().getId() == null) {
+            return "Не указан рейтинг MPA.";
+        }
+        try {
+            referenceDataRegistry.getRating(film.getMpa().getId());
+            if (film.getGenres() != null) {
+                for (Genre genre : film.getGenres()) {
+                    if (genre == null || genre.getId() == null) {
+                        return "Не указан id жанра.";
+                    }
+                    referenceDataRegistry.getGenre(genre.getId());
+                }
+            }
+        } catch (ObjectNotFoundException e) {
+            return e.getMessage();
+        }
+        if (film.getDirectors() != null) {
+            for (Director director : film.getDirectors()) {
+                if (director == null || director.getId() == null) {
+                    return "Не указан id режиссёра.";
+                }
+                if (!directorIds.contains(director.getId())) {
+                    return "Режиссёр с id = " + director.getId() + " не найден.";
+                }
+            }
+        }
+        return null;
+    }
+
+    private Set<Integer> getExistingDirectorIds(List<Film> films) {
+        Set<Integer> ids = new HashSet<>();
+        for (Film film : films) {
+            if (film.getDirectors() != null) {
+                for (Director director : film.getDirectors()) {
+                    if (director != null && director.getId() != null) {
+                        ids.add(director.getId());
+                    }
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT director_id FROM directors " +
+                "WHERE director_id = ANY(?);", Integer.class, new Object[]{ids.toArray()}));
+    }
+
+    private static Set<Integer> collectGenreIds(Film film) {
+        Set<Integer> genreIds = new TreeSet<>();
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                genreIds.add(genre.getId());
+            }
+        }
+        return genreIds;
+    }
+
+    private static Set<Integer> collectDirectorIds(Film film) {
+        Set<Integer> directorIds = new TreeSet<>();
+        if (film.getDirectors() != null) {
+            for (Director director : film.getDirectors()) {
+                directorIds.add(director.getId());
+            }
+        }
+        return directorIds;
+    }
+
     @Override
     public Film updateFilm(Film film) {
         if (film != null && getFilm(film.getId()) != null) {
             jdbcTemplate.update("UPDATE films set name = ?, description = ?, release_date = ?, duration = ?, " +
                             "rating_id = ? WHERE film_id = ?;", film.getName(), film.getDescription(),
                     film.getReleaseDate(), film.getDuration(), film.getMpa().getId(), film.getId());
-            setGenre(film);
-            setDirectors(film);
+            List<Genre> genres = setGenre(film);
+            List<Integer> directorIds = getDirectorIds(setDirectors(film));
+            filmCache.invalidate(film.getId());
+            filmLeaderboard.putFilm(film.getId(), film.getReleaseDate(), getGenreIds(genres));
+            filmSearchIndex.putFilm(film.getId(), film.getName(), directorIds);
+            filmSuggestions.putFilm(film.getId(), film.getName(), directorIds);
             return getFilm(film.getId());
         }
         return film;
@@ -155,47 +353,51 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public Film getFilm(int id) {
-        return jdbcTemplate.queryForObject("SELECT f.film_id, " +
-                "f.name , " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "f.rating_id AS rating_id, " +
-                "r.name AS rating_name , " +
-                "GROUP_CONCAT(g.genre_id) AS genre_id, " +
-                "GROUP_CONCAT(g.name) AS name, " +
-                "GROUP_CONCAT(d.director_id) AS director_id, " +
-                "GROUP_CONCAT(d.name) AS name " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id=fg.film_id " +
-                "LEFT OUTER JOIN genres AS g ON fg.genre_id=g.genre_id " +
-                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "WHERE f.film_id = ? " +
-                "GROUP BY f.film_id;", this::createFilm, id);
+        return filmCache.get(id, this::loadFilm);
+    }
+
+    private Film loadFilm(int id) {
+        Film film = jdbcTemplate.queryForObject(FILM_SELECT +
+                "WHERE f.film_id = ?;", this::createFilm, id);
+        hydrate(List.of(film));
+        return film;
     }
 
     @Override
     public List<Film> getFilms() {
-        return jdbcTemplate.query("SELECT f.film_id, " +
-                "f.name, " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "f.rating_id, " +
-                "r.name, " +
-                "GROUP_CONCAT(g.genre_id) AS genre_id, " +
-                "GROUP_CONCAT(g.name) AS name, " +
-                "GROUP_CONCAT(d.director_id) AS director_id, " +
-                "GROUP_CONCAT(d.name) AS name " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id=fg.film_id " +
-                "LEFT OUTER JOIN genres AS g ON fg.genre_id=g.genre_id " +
-                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "GROUP BY f.film_id;", this::createFilm);
+        return hydrate(jdbcTemplate.query(FILM_SELECT +
+                "ORDER BY f.film_id;", this::createFilm));
+    }
+
+    @Override
+    public List<Film> getFilms(int afterId, int limit) {
+        return hydrate(jdbcTemplate.query(FILM_SELECT +
+                "WHERE f.film_id > ? " +
+                "ORDER BY f.film_id " +
+                "LIMIT ?;", this::createFilm, afterId, limit));
+    }
+
+    @Override
+    public void exportFilms(Consumer<Film> consumer) {
+        List<Film> batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(FILM_SELECT + "ORDER BY f.film_id;");
+            ps.setFetchSize(EXPORT_BATCH_SIZE);
+            return ps;
+        }, rs -> {
+            batch.add(createFilm(rs, 0));
+            if (batch.size() == EXPORT_BATCH_SIZE) {
+                exportBatch(batch, consumer);
+            }
+        });
+        exportBatch(batch, consumer);
+    }
+
+    private void exportBatch(List<Film> batch, Consumer<Film> consumer) {
+        for (Film film : hydrate(batch)) {
+            consumer.accept(film);
+        }
+        batch.clear();
     }
 
     private List<Genre> setGenre(Film film) {
@@ -228,7 +430,7 @@ public class FilmDbStorage implements FilmStorage {
         }
         List<Director> filmDirectors = new ArrayList<>(film.getDirectors());
         filmDirectors.sort((director1, director2) -> director1.getId() - director2.getId());
-        jdbcTemplate.batchUpdate("INSERT INTO film_director (film_id, director_id) VALUES (?, ?);",
+        jdbcTemplate.batchUpdate("MERGE INTO film_director (film_id, director_id) VALUES (?, ?);",
                 new BatchPreparedStatementSetter() {
                     @Override
                     public void setValues(PreparedStatement ps, int i) throws SQLException {
@@ -244,6 +446,22 @@ public class FilmDbStorage implements FilmStorage {
         return filmDirectors;
     }
 
+    private static List<Integer> getGenreIds(List<Genre> genres) {
+        List<Integer> genreIds = new ArrayList<>();
+        for (Genre genre : genres) {
+            genreIds.add(genre.getId());
+        }
+        return genreIds;
+    }
+
+    private static List<Integer> getDirectorIds(List<Director> directors) {
+        List<Integer> directorIds = new ArrayList<>();
+        for (Director director : directors) {
+            directorIds.add(director.getId());
+        }
+        return directorIds;
+    }
+
     private void removeDirector(int filmId) {
         jdbcTemplate.update("DELETE FROM film_director WHERE film_id = ?;", filmId);
     }
@@ -252,196 +470,233 @@ public class FilmDbStorage implements FilmStorage {
         jdbcTemplate.update("DELETE FROM film_genre WHERE film_id = ?;", filmId);
     }
 
+    /**
+     * Лайк ставится одним INSERT ... SELECT, который сам проверяет существование фильма и пользователя и повторный
+     * лайк. Отдельный запрос на существование нужен, только если строка не вставилась. Топ, подсказки и
+     * рекомендации в памяти обновляются после фиксации транзакции, чтобы откат не оставлял их в изменённом состоянии.
+     * Событие в ленту создаётся, только если лайк действительно добавлен; в базу его после фиксации транзакции
+     * записывает FeedWriter.
+     */
     @Override
+    @Transactional
     public boolean like(int id, int userId) {
-        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
-        if (getFilm(id) != null && userDbStorage.getUser(userId) != null) {
-            jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (?, ?);", id, userId);
-            feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), userId, EventTypes.LIKE.toString(), Operations.ADD.toString(), id));
+        int inserted = jdbcTemplate.update(LIKE_INSERT, userId, id, id, userId);
+        if (inserted == 0) {
+            checkFilmAndUser(id, userId);
+            return true;
         }
+        jdbcTemplate.update("UPDATE films SET like_count = like_count + 1 WHERE film_id = ?;", id);
+        filmSimilarity.addLike(userId, id);
+        feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), userId, EventTypes.LIKE.toString(), Operations.ADD.toString(), id));
+        afterCommit(() -> {
+            filmLeaderboard.changeLikes(id, 1);
+            filmSuggestions.changeLikes(id, 1);
+            recommendationEngine.addLike(userId, id);
+        });
         return true;
     }
 
+    /**
+     * Ставит пачку лайков одной транзакцией: тот же INSERT ... SELECT, что и в like(), уходит одним batch.
+     * Счётчики фильмов обновляются одним batch, индексы в памяти и топы похожих фильмов - один раз на пачку
+     * после фиксации транзакции.
+     * Повторный лайк ошибкой не считается. События в ленту при загрузке не пишутся: это перенос данных,
+     * а не действия пользователей.
+     */
     @Override
+    @Transactional
+    public Map<Integer, String> addLikes(List<Like> likes) {
+        int[] inserted = jdbcTemplate.batchUpdate(LIKE_INSERT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Like like = likes.get(i);
+                ps.setInt(1, like.getUserId());
+                ps.setInt(2, like.getFilmId());
+                ps.setInt(3, like.getFilmId());
+                ps.setInt(4, like.getUserId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return likes.size();
+            }
+        });
+        Map<Integer, List<Integer>> filmIdsByUser = new LinkedHashMap<>();
+        Map<Integer, Integer> addedByFilm = new HashMap<>();
+        List<Integer> rejected = new ArrayList<>();
+        for (int i = 0; i < likes.size(); i++) {
+            Like like = likes.get(i);
+            if (inserted[i] > 0) {
+                filmIdsByUser.computeIfAbsent(like.getUserId(), id -> new ArrayList<>()).add(like.getFilmId());
+                addedByFilm.merge(like.getFilmId(), 1, Integer::sum);
+            } else {
+                rejected.add(i);
+            }
+        }
+        Map<Integer, String> errors = checkRejectedLikes(likes, rejected);
+        if (addedByFilm.isEmpty()) {
+            return errors;
+        }
+        List<Object[]> countArgs = new ArrayList<>(addedByFilm.size());
+        addedByFilm.forEach((filmId, count) -> countArgs.add(new Object[]{count, filmId}));
+        jdbcTemplate.batchUpdate("UPDATE films SET like_count = like_count + ? WHERE film_id = ?;", countArgs);
+        filmSimilarity.addLikes(filmIdsByUser);
+        afterCommit(() -> {
+            addedByFilm.forEach((filmId, count) -> {
+                filmLeaderboard.changeLikes(filmId, count);
+                filmSuggestions.changeLikes(filmId, count);
+            });
+            recommendationEngine.addLikes(filmIdsByUser);
+        });
+        return errors;
+    }
+
+    /**
+     * Разбирает лайки, которые не вставились: фильм или пользователь не найден, либо лайк уже был.
+     * Существование проверяется одним запросом на таблицу для всей пачки.
+     */
+    private Map<Integer, String> checkRejectedLikes(List<Like> likes, List<Integer> rejected) {
+        Map<Integer, String> errors = new HashMap<>();
+        if (rejected.isEmpty()) {
+            return errors;
+        }
+        Set<Integer> filmIds = new HashSet<>();
+        Set<Integer> userIds = new HashSet<>();
+        for (int i : rejected) {
+            filmIds.add(likes.get(i).getFilmId());
+            userIds.add(likes.get(i).getUserId());
+        }
+        Set<Integer> foundFilmIds = new HashSet<>(jdbcTemplate.queryForList("SELECT film_id FROM films " +
+                "WHERE film_id = ANY(?);", Integer.class, new Object[]{filmIds.toArray()}));
+        Set<Integer> foundUserIds = new HashSet<>(jdbcTemplate.queryForList("SELECT user_id FROM users " +
+                "WHERE user_id = ANY(?);", Integer.class, new Object[]{userIds.toArray()}));
+        for (int i : rejected) {
+            Like like = likes.get(i);
+            if (!foundFilmIds.contains(like.getFilmId())) {
+                errors.put(i, "Фильм с id = " + like.getFilmId() + " не найден.");
+            } else if (!foundUserIds.contains(like.getUserId())) {
+                errors.put(i, "Пользователь с id = " + like.getUserId() + " не найден.");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Снимает лайк так же, как like() его ставит: событие в ленту создаётся, только если лайк был и удалён,
+     * а записывает его FeedWriter после фиксации транзакции.
+     */
+    @Override
+    @Transactional
     public boolean deleteLike(int id, int userId) {
-        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
-        if (getFilm(id) != null && userDbStorage.getUser(userId) != null) {
-            jdbcTemplate.update("DELETE FROM likes WHERE user_id = ? AND film_id = ?;", userId, id);
-            feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), userId, EventTypes.LIKE.toString(), Operations.REMOVE.toString(), id));
+        int deleted = jdbcTemplate.update("DELETE FROM likes WHERE user_id = ? AND film_id = ?;", userId, id);
+        if (deleted == 0) {
+            checkFilmAndUser(id, userId);
+            return true;
         }
+        jdbcTemplate.update("UPDATE films SET like_count = like_count - 1 WHERE film_id = ?;", id);
+        filmSimilarity.removeLike(userId, id);
+        feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), userId, EventTypes.LIKE.toString(), Operations.REMOVE.toString(), id));
+        afterCommit(() -> {
+            filmLeaderboard.changeLikes(id, -1);
+            filmSuggestions.changeLikes(id, -1);
+            recommendationEngine.removeLike(userId, id);
+        });
         return true;
     }
 
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void checkFilmAndUser(int id, int userId) {
+        Map<String, Object> found = jdbcTemplate.queryForMap("SELECT " +
+                "EXISTS (SELECT 1 FROM films WHERE film_id = ?) AS film_found, " +
+                "EXISTS (SELECT 1 FROM users WHERE user_id = ?) AS user_found;", id, userId);
+        if (!Boolean.TRUE.equals(found.get("film_found"))) {
+            throw new ObjectNotFoundException("Фильм с id = " + id + " не найден.");
+        }
+        if (!Boolean.TRUE.equals(found.get("user_found"))) {
+            throw new ObjectNotFoundException("Пользователь с id = " + userId + " не найден.");
+        }
+    }
+
     @Override
     public List<Film> getTopFilms(Integer count, Integer genreId, Integer year) {
         if (count < 0) {
             throw new IllegalArgumentException("Было передано отрицательное значение count");
         }
-        String param;
-        String bound = " LIMIT " + count;
-        String sql = "SELECT f.film_id," +
-                " f.name," +
-                " f.description," +
-                " f.release_date," +
-                " f.duration," +
-                " f.rating_id, " +
-                "fm.NAME as mpa_name FROM films f " +
-                "LEFT JOIN (SELECT * FROM ratings) fm ON f.rating_id = fm.rating_id " +
-                "LEFT JOIN likes AS l ON f.film_id=l.film_id " +
-                "LEFT JOIN (SELECT * FROM film_director) fd ON fd.film_id = f.FILM_ID " +
-                "LEFT JOIN (SELECT * FROM FILM_GENRE) fg ON f.film_id = fg.FILM_ID ";
-        if (genreId > 0 && year > 0) {
-            param = " WHERE fg.genre_id = " + genreId + " AND YEAR(f.release_date) = " + year + " GROUP BY f.film_id ORDER BY COUNT(l.user_id) DESC, f.film_id ";
-        } else if (genreId > 0 && year == 0) {
-            param = " WHERE fg.genre_id = " + genreId + " GROUP BY f.film_id ORDER BY COUNT(l.user_id) DESC, f.film_id";
-        } else if (genreId == 0 && year > 0) {
-            param = " WHERE YEAR(f.release_date) = " + year + " GROUP BY f.film_id ORDER BY COUNT(l.user_id) DESC, f.film_id";
-        } else {
-            param = " GROUP BY f.film_id ORDER BY COUNT(l.user_id)  DESC, f.film_id";
+        return getFilmsByIds(filmLeaderboard.getTopFilmIds(count, genreId, year));
+    }
+
+    /**
+     * Возвращает фильмы в порядке переданных id: уже закэшированные берутся из кэша,
+     * остальные загружаются одним запросом.
+     */
+    @Override
+    public List<Film> getFilmsByIds(List<Integer> ids) {
+        Map<Integer, Film> filmsById = new HashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        for (Integer id : ids) {
+            Film film = filmCache.getIfPresent(id);
+            if (film != null) {
+                filmsById.put(id, film);
+            } else {
+                missingIds.add(id);
+            }
         }
-        List<Film> allFilms = jdbcTemplate.query(sql + param + bound, this::createFilm);
-        List<Film> topFilms = new ArrayList<>();
-        if (!allFilms.isEmpty()) {
-            for (int i = 0; i < count && i < allFilms.size(); i++) {
-                topFilms.add(allFilms.get(i));
+        if (!missingIds.isEmpty()) {
+            for (Film film : hydrate(jdbcTemplate.query(FILM_SELECT + "WHERE f.film_id = ANY(?);",
+                    this::createFilm, new Object[]{missingIds.toArray()}))) {
+                filmsById.put(film.getId(), film);
             }
         }
-        return topFilms;
+        List<Film> films = new ArrayList<>();
+        for (Integer id : ids) {
+            Film film = filmsById.get(id);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        return films;
     }
 
     @Override
     public List<Film> getCommonFilms(int userID, int friendId) {
-        List<Film> userFilms = new ArrayList<>(likeFilms(userID));
-        userFilms.retainAll(likeFilms(friendId));
-        return new ArrayList<>(userFilms);
-    }
-
-    private List<Film> likeFilms(int userId) {
-        String query = "SELECT f.film_id, " +
-                "f.name AS film_name, " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "f.rating_id, " +
-                "r.name AS rating_name, " +
-                "(SELECT GROUP_CONCAT(genre_id) " +
-                "FROM film_genre AS fg " +
-                "WHERE film_id =f.film_id) AS genre_id, " +
-                "(SELECT GROUP_CONCAT(g.name) " +
-                "FROM genres AS g " +
-                "WHERE genre_id IN(SELECT g.genre_id " +
-                "FROM film_genre AS fi_g " +
-                "WHERE film_id=f.film_id)) AS genre_name " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN likes AS l ON f.film_id=l.film_id " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "Where f.film_id IN (Select film_id from likes where user_id = ?) " +
-                "GROUP BY f.film_id " +
-                "ORDER BY COUNT(l.user_id) DESC, f.film_id;";
-        return jdbcTemplate.query(query, this::createFilm, userId);
+        List<Integer> commonFilmIds = jdbcTemplate.queryForList("SELECT ul.film_id FROM likes AS ul " +
+                "JOIN likes AS fl ON fl.film_id = ul.film_id AND fl.user_id = ? " +
+                "JOIN films AS f ON f.film_id = ul.film_id " +
+                "WHERE ul.user_id = ? " +
+                "ORDER BY f.like_count DESC, f.film_id;", Integer.class, friendId, userID);
+        return getFilmsByIds(commonFilmIds);
     }
 
     @Override
     public List<Film> getFilmsOfDirector(int directorId, String sortBy) {
-        DirectorDbStorage directorDbStorage = new DirectorDbStorage(jdbcTemplate);
-        directorDbStorage.getDirector(directorId);
+        directorStorage.getDirector(directorId);
+        String sql = FILM_SELECT +
+                "JOIN film_director AS fd ON f.film_id=fd.film_id " +
+                "WHERE fd.director_id = ? " +
+                "GROUP BY f.film_id";
         if (sortBy != null) {
             if (sortBy.equals("year")) {
-                return jdbcTemplate.query("SELECT f.film_id, " +
-                        "f.name , " +
-                        "f.description, " +
-                        "f.release_date, " +
-                        "f.duration, " +
-                        "f.rating_id, " +
-                        "r.name AS rating_name, " +
-                        "(SELECT GROUP_CONCAT(genre_id) " +
-                        "FROM film_genre AS fg " +
-                        "WHERE film_id =f.film_id) AS genre_id, " +
-                        "(SELECT GROUP_CONCAT(g.name) " +
-                        "FROM genres AS g " +
-                        "WHERE genre_id IN(SELECT g.genre_id " +
-                        "FROM film_genre AS fi_g " +
-                        "WHERE film_id=f.film_id)) AS genre_name, " +
-                        "(SELECT GROUP_CONCAT(director_id) " +
-                        "FROM film_director AS fd " +
-                        "WHERE film_id=f.film_id) AS director_id, " +
-                        "(SELECT GROUP_CONCAT(d.name) " +
-                        "FROM directors AS d " +
-                        "WHERE director_id IN(SELECT d.director_id " +
-                        "FROM film_director AS fd " +
-                        "WHERE film_id=f.film_id)) AS name " +
-                        "FROM films AS f " +
-                        "LEFT OUTER JOIN likes AS l ON f.film_id=l.film_id " +
-                        "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                        "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                        "WHERE director_id = ? " +
-                        "GROUP BY f.film_id " +
-                        "ORDER BY EXTRACT(YEAR FROM f.release_date) ASC, f.film_id;", this::createFilm, directorId);
+                return hydrate(jdbcTemplate.query(sql +
+                        " ORDER BY EXTRACT(YEAR FROM f.release_date) ASC, f.film_id;", this::createFilm, directorId));
             }
             if (sortBy.equals("likes")) {
-                return jdbcTemplate.query("SELECT f.film_id, " +
-                        "f.name , " +
-                        "f.description, " +
-                        "f.release_date, " +
-                        "f.duration, " +
-                        "f.rating_id, " +
-                        "r.name AS rating_name, " +
-                        "(SELECT GROUP_CONCAT(genre_id) " +
-                        "FROM film_genre AS fg " +
-                        "WHERE film_id =f.film_id) AS genre_id, " +
-                        "(SELECT GROUP_CONCAT(g.name) " +
-                        "FROM genres AS g " +
-                        "WHERE genre_id IN(SELECT g.genre_id " +
-                        "FROM film_genre AS fi_g " +
-                        "WHERE film_id=f.film_id)) AS genre_name, " +
-                        "(SELECT GROUP_CONCAT(director_id) " +
-                        "FROM film_director AS fd " +
-                        "WHERE film_id=f.film_id) AS director_id, " +
-                        "(SELECT GROUP_CONCAT(d.name) " +
-                        "FROM directors AS d " +
-                        "WHERE director_id IN(SELECT d.director_id " +
-                        "FROM film_director AS fd " +
-                        "WHERE film_id=f.film_id)) AS name " +
-                        "FROM films AS f " +
-                        "LEFT OUTER JOIN likes AS l ON f.film_id=l.film_id " +
-                        "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                        "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                        "WHERE director_id = ? " +
-                        "GROUP BY f.film_id " +
-                        "ORDER BY COUNT(l.user_id) DESC, f.film_id;", this::createFilm, directorId);
+                return hydrate(jdbcTemplate.query(sql +
+                        " ORDER BY f.like_count DESC, f.film_id;", this::createFilm, directorId));
             }
         }
-        return jdbcTemplate.query("SELECT f.film_id, " +
-                "f.name , " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "f.rating_id, " +
-                "r.name AS rating_name, " +
-                "(SELECT GROUP_CONCAT(genre_id) " +
-                "FROM film_genre AS fg " +
-                "WHERE film_id =f.film_id) AS genre_id, " +
-                "(SELECT GROUP_CONCAT(g.name) " +
-                "FROM genres AS g " +
-                "WHERE genre_id IN(SELECT g.genre_id " +
-                "FROM film_genre AS fi_g " +
-                "WHERE film_id=f.film_id)) AS genre_name, " +
-                "(SELECT GROUP_CONCAT(director_id) " +
-                "FROM film_director AS fd " +
-                "WHERE film_id=f.film_id) AS director_id, " +
-                "(SELECT GROUP_CONCAT(d.name) " +
-                "FROM directors AS d " +
-                "WHERE director_id IN(SELECT d.director_id " +
-                "FROM film_director AS fd " +
-                "WHERE film_id=f.film_id)) AS name " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN likes AS l ON f.film_id=l.film_id " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                "WHERE director_id = ? " +
-                "GROUP BY f.film_id;", this::createFilm, directorId);
+        return hydrate(jdbcTemplate.query(sql + ";", this::createFilm, directorId));
     }
 
     @Override
@@ -454,30 +709,21 @@ public class FilmDbStorage implements FilmStorage {
             log.error("Ошибка: некорректно задан фильтр для поиска по названию фильмов и по режиссёру");
             throw new ObjectNotFoundException("Неизвестный фильтр для поиска по названию фильмов и по режиссёру - " + by);
         }
-        String sqlRequest = "SELECT f.film_id, " +
-                "f.name, " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "f.rating_id, " +
-                "r.name AS rating_name, " +
-                "count(l.film_id) as cnt " +
-                "FROM films AS f " +
-                "LEFT OUTER JOIN likes AS l ON f.film_id=l.film_id " +
-                "LEFT OUTER JOIN ratings AS r ON f.rating_id=r.rating_id " +
-                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
-                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id ";
-        if (by.equals("title")) {
-            sqlRequest += "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) GROUP BY f.film_id ORDER BY cnt DESC;";
-            return jdbcTemplate.query(sqlRequest, this::createFilm, query);
-        } else if (by.equals("director")) {
-            sqlRequest += "WHERE LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) GROUP BY f.film_id ORDER BY cnt DESC;";
-            return jdbcTemplate.query(sqlRequest, this::createFilm, query);
-        } else {
-            sqlRequest += "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
-                    "OR LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) " +
-                    "GROUP BY f.film_id ORDER BY cnt DESC;";
-            return jdbcTemplate.query(sqlRequest, this::createFilm, query, query);
-        }
+        List<Integer> filmIds = new ArrayList<>(filmSearchIndex.search(query, !by.equals("director"),
+                !by.equals("title")));
+        filmIds.sort(Comparator.comparingInt((Integer id) -> -filmLeaderboard.getLikeCount(id))
+                .thenComparingInt(id -> id));
+        return getFilmsByIds(filmIds);
+    }
+
+    @Override
+    public List<Suggestion> getSuggestions(String prefix, int limit) {
+        return filmSuggestions.suggest(prefix, limit);
+    }
+
+    @Override
+    public List<Film> getSimilarFilms(int id, int count) {
+        getFilm(id);
+        return getFilmsByIds(filmSimilarity.getSimilarFilmIds(id, count));
     }
 }
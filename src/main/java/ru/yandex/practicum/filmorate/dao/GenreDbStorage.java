@@ -1,8 +1,6 @@
 package ru.yandex.practicum.filmorate.dao;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.storage.genre.GenreStorage.GenreStorage;
@@ -13,20 +11,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public class GenreDbStorage implements GenreStorage {
 
-    private final JdbcTemplate jdbcTemplate;
-
-    private RowMapper<Genre> getGenreMapper() {
-        return ((rs, rowNum) -> new Genre(rs.getInt("genre_id"), rs.getString("name")));
-    }
+    private final ReferenceDataRegistry referenceDataRegistry;
 
     @Override
     public Genre getGenre(int id) {
-        return jdbcTemplate.queryForObject("SELECT* FROM genres WHERE genre_id = ?;",
-                getGenreMapper(), id);
+        return referenceDataRegistry.getGenre(id);
     }
 
     @Override
     public List<Genre> getGenres() {
-        return jdbcTemplate.query("SELECT* FROM genres;", getGenreMapper());
+        return referenceDataRegistry.getGenres();
     }
 }
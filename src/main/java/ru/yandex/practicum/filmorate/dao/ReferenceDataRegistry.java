@@ -0,0 +1,128 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Справочники жанров и рейтингов MPA, загруженные в память при старте.
+ * Данные хранятся в массивах, индексированных по id, и не меняются до явного вызова {@link #reload()}.
+ */
+@Component
+@Slf4j
+public class ReferenceDataRegistry {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FilmCache filmCache;
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public ReferenceDataRegistry(JdbcTemplate jdbcTemplate, FilmCache filmCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmCache = filmCache;
+    }
+
+    public ReferenceDataRegistry(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FilmCache(FilmCache.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Перечитывает справочники из базы и подменяет их целиком. Фильмы в кэше собраны со старыми названиями
+     * жанров и рейтинга, поэтому кэш фильмов сбрасывается после подмены.
+     */
+    @PostConstruct
+    public void reload() {
+        snapshot = new Snapshot(loadNames("SELECT genre_id AS id, name FROM genres;"),
+                loadNames("SELECT rating_id AS id, name FROM ratings;"));
+        filmCache.invalidateAll();
+        log.info("Справочники жанров и рейтингов загружены в память.");
+    }
+
+    public Genre getGenre(int id) {
+        String name = lookup(snapshot().genreNames, id);
+        if (name == null) {
+            throw new ObjectNotFoundException("Жанр с id = " + id + " не найден.");
+        }
+        return new Genre(id, name);
+    }
+
+    public List<Genre> getGenres() {
+        String[] genreNames = snapshot().genreNames;
+        List<Genre> genres = new ArrayList<>();
+        for (int id = 0; id < genreNames.length; id++) {
+            if (genreNames[id] != null) {
+                genres.add(new Genre(id, genreNames[id]));
+            }
+        }
+        return genres;
+    }
+
+    public Rating getRating(int id) {
+        String name = lookup(snapshot().ratingNames, id);
+        if (name == null) {
+            throw new ObjectNotFoundException("Рейтинг с id = " + id + " не найден.");
+        }
+        return new Rating(id, name);
+    }
+
+    public List<Rating> getRatings() {
+        String[] ratingNames = snapshot().ratingNames;
+        List<Rating> ratings = new ArrayList<>();
+        for (int id = 0; id < ratingNames.length; id++) {
+            if (ratingNames[id] != null) {
+                ratings.add(new Rating(id, ratingNames[id]));
+            }
+        }
+        return ratings;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    reload();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private String[] loadNames(String sql) {
+        TreeMap<Integer, String> names = new TreeMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            names.put(rs.getInt("id"), rs.getString("name"));
+        });
+        String[] namesById = new String[names.isEmpty() ? 0 : names.lastKey() + 1];
+        names.forEach((id, name) -> namesById[id] = name);
+        return namesById;
+    }
+
+    private static String lookup(String[] namesById, int id) {
+        if (id < 0 || id >= namesById.length) {
+            return null;
+        }
+        return namesById[id];
+    }
+
+    private static final class Snapshot {
+        private final String[] genreNames;
+        private final String[] ratingNames;
+
+        private Snapshot(String[] genreNames, String[] ratingNames) {
+            this.genreNames = genreNames;
+            this.ratingNames = ratingNames;
+        }
+    }
+}
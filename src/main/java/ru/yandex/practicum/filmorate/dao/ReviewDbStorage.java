@@ -1,7 +1,8 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
@@ -9,21 +10,47 @@ import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.enums.EventTypes;
 import ru.yandex.practicum.filmorate.enums.Operations;
 import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewUsefulCounter.ReviewUsefulCounter;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage.UserStorage;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
 @Repository
-@RequiredArgsConstructor
 @Slf4j
 public class ReviewDbStorage implements ReviewStorage {
 
+    private static final int LIKE = 1;
+    private static final int DISLIKE = -1;
+
     private final JdbcTemplate jdbcTemplate;
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final FeedDbStorage feedDbStorage;
+    private final ReviewUsefulCounter reviewUsefulCounter;
+
+    @Autowired
+    public ReviewDbStorage(JdbcTemplate jdbcTemplate, FilmStorage filmStorage, UserStorage userStorage,
+                           FeedDbStorage feedDbStorage, ReviewUsefulCounter reviewUsefulCounter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.feedDbStorage = feedDbStorage;
+        this.reviewUsefulCounter = reviewUsefulCounter;
+    }
+
+    public ReviewDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FilmDbStorage(jdbcTemplate), new UserDbStorage(jdbcTemplate),
+                new FeedDbStorage(jdbcTemplate), new ReviewUsefulCounter(jdbcTemplate));
+    }
 
     private RowMapper<Review> getReviewMapper() {
         return ((rs, rowNum) -> new Review(rs.getInt("review_id"), rs.getString("content"),
@@ -33,9 +60,6 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public Review addReview(Review review) {
-        FilmStorage filmStorage = new FilmDbStorage(jdbcTemplate);
-        UserStorage userStorage = new UserDbStorage(jdbcTemplate);
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
         if (review != null && userStorage.getUser(review.getUserId()) != null &&
                 filmStorage.getFilm(review.getFilmId()) != null) {
             SimpleJdbcInsert simpleReviewInsert = new SimpleJdbcInsert(jdbcTemplate)
@@ -56,9 +80,6 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public Review updateReview(Review review) {
-        FilmStorage filmStorage = new FilmDbStorage(jdbcTemplate);
-        UserStorage userStorage = new UserDbStorage(jdbcTemplate);
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
         if (review != null && getReview(review.getReviewId()) != null && filmStorage.getFilm(review.getFilmId()) != null
                 && userStorage.getUser(review.getUserId()) != null) {
             jdbcTemplate.update("UPDATE reviews set content = ?, is_positive = ? WHERE review_id = ?;",
@@ -72,34 +93,58 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public Review getReview(int id) {
-        return jdbcTemplate.queryForObject("SELECT* " +
-                "FROM reviews " +
-                "WHERE review_id = ?;", getReviewMapper(), id);
+        return reviewUsefulCounter.read(() -> {
+            Review review = jdbcTemplate.queryForObject("SELECT* " +
+                    "FROM reviews " +
+                    "WHERE review_id = ?;", getReviewMapper(), id);
+            review.setUseful(review.getUseful() + reviewUsefulCounter.getPending(id));
+            return review;
+        });
     }
 
+    /**
+     * Страница отзывов по убыванию рейтинга, при равном рейтинге по возрастанию id. Курсор - пара "useful,reviewId"
+     * последнего отзыва предыдущей страницы. Выборка идёт по индексам reviews_film_useful_idx и reviews_useful_idx
+     * с позиции курсора, поэтому дальние страницы читаются так же быстро, как первая. Существование фильма
+     * проверяется, только если отзывов не нашлось.
+     */
     @Override
-    public List<Review> getReviewOfFilm(Integer filmId, Integer count) {
-        FilmStorage filmStorage = new FilmDbStorage(jdbcTemplate);
-        if (filmId == null) {
-            return jdbcTemplate.query("SELECT* " +
-                    "FROM reviews " +
-                    "ORDER BY useful DESC " +
-                    "LIMIT ?;", getReviewMapper(), count);
-        } else if (filmStorage.getFilm(filmId) != null) {
-            String sql = "SELECT * FROM REVIEWS WHERE FILM_ID = ? " +
-                    "ORDER BY USEFUL DESC LIMIT ?";
-            return jdbcTemplate.query(sql, getReviewMapper(), filmId, count);
-        } else {
-            throw new ObjectNotFoundException("Фильм не найден");
+    public Page<Review> getReviewOfFilm(Integer filmId, String cursor, int count) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT* FROM reviews WHERE TRUE");
+        if (filmId != null) {
+            sql.append(" AND film_id = ?");
+            args.add(filmId);
         }
+        if (cursor != null) {
+            int[] after = parseCursor(cursor);
+            sql.append(" AND useful <= ? AND (useful < ? OR review_id > ?)");
+            args.addAll(List.of(after[0], after[0], after[1]));
+        }
+        sql.append(filmId == null ? " ORDER BY useful DESC, review_id" : " ORDER BY film_id, useful DESC, review_id");
+        sql.append(" LIMIT ?;");
+        args.add(count);
+        Page<Review> page = reviewUsefulCounter.read(() -> {
+            List<Review> reviews = jdbcTemplate.query(sql.toString(), getReviewMapper(), args.toArray());
+            String nextCursor = null;
+            if (reviews.size() == count) {
+                Review last = reviews.get(reviews.size() - 1);
+                nextCursor = last.getUseful() + "," + last.getReviewId();
+            }
+            return new Page<>(addPendingUseful(reviews), nextCursor);
+        });
+        if (page.getItems().isEmpty() && filmId != null && !filmExists(filmId)) {
+            throw new ObjectNotFoundException("Фильм с id = " + filmId + " не найден.");
+        }
+        return page;
     }
 
     @Override
     public boolean deleteReview(int id) {
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
         if (getReview(id) != null) {
             feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), getReview(id).getUserId(), EventTypes.REVIEW.toString(), Operations.REMOVE.toString(), getReview(id).getFilmId()));
             jdbcTemplate.update("DELETE reviews WHERE review_id = ?;", id);
+            reviewUsefulCounter.removeReview(id);
             return true;
         }
         return false;
@@ -107,30 +152,114 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public boolean addLikeOfReview(int id, int userId) {
-        jdbcTemplate.update("UPDATE REVIEWS SET USEFUL = USEFUL + 1 WHERE REVIEW_ID = ?", id);
+        vote(id, userId, LIKE);
         log.info("Пользователь с ID = {} добавил лайк для отзыва ID = {}.", userId, id);
         return true;
     }
 
     @Override
     public boolean deleteLikeOfReview(int id, int userId) {
-        jdbcTemplate.update("UPDATE REVIEWS SET USEFUL = USEFUL - 1 WHERE REVIEW_ID = ?", id);
+        removeVote(id, userId, LIKE);
         log.info("Пользователь удалил лайк для отзыва");
         return true;
     }
 
     @Override
     public boolean addDislikeOfReview(int id, int userId) {
-        jdbcTemplate.update("UPDATE REVIEWS SET USEFUL = USEFUL - 1 WHERE REVIEW_ID = ?", id);
+        vote(id, userId, DISLIKE);
         log.info("Пользователь с ID = {} добавил дизлайк для отзыва ID = {}.", userId, id);
         return true;
     }
 
     @Override
     public boolean deleteDislikeOfReview(int id, int userId) {
-        jdbcTemplate.update("UPDATE REVIEWS SET USEFUL = USEFUL + 1 WHERE REVIEW_ID = ?", id);
+        removeVote(id, userId, DISLIKE);
         log.info("Пользователь с ID = {} удалил дизлайк для отзыва ID = {}.", userId, id);
         return true;
+    }
+
+    /**
+     * Сохраняет голос пользователя за отзыв. Повторный такой же голос ничего не меняет, противоположный заменяет
+     * прежний. Рейтинг меняется через ReviewUsefulCounter, строка отзыва при голосовании не блокируется.
+     */
+    private void vote(int id, int userId, int vote) {
+        try {
+            int inserted = jdbcTemplate.update("INSERT INTO review_votes (review_id, user_id, vote) " +
+                    "SELECT r.review_id, u.user_id, ? FROM reviews AS r JOIN users AS u ON u.user_id = ? " +
+                    "WHERE r.review_id = ? AND NOT EXISTS (SELECT 1 FROM review_votes " +
+                    "WHERE review_id = ? AND user_id = ?);", vote, userId, id, id, userId);
+            if (inserted > 0) {
+                reviewUsefulCounter.add(id, vote);
+                return;
+            }
+        } catch (DuplicateKeyException e) {
+            log.debug("Голос пользователя с ID = {} за отзыв ID = {} уже добавлен.", userId, id);
+        }
+        int changed = jdbcTemplate.update("UPDATE review_votes SET vote = ? " +
+                "WHERE review_id = ? AND user_id = ? AND vote <> ?;", vote, id, userId, vote);
+        if (changed > 0) {
+            reviewUsefulCounter.add(id, 2 * vote);
+        } else {
+            checkReviewAndUser(id, userId);
+        }
+    }
 
+    private void removeVote(int id, int userId, int vote) {
+        int deleted = jdbcTemplate.update("DELETE FROM review_votes WHERE review_id = ? AND user_id = ? AND vote = ?;",
+                id, userId, vote);
+        if (deleted > 0) {
+            reviewUsefulCounter.add(id, -vote);
+        } else {
+            checkReviewAndUser(id, userId);
+        }
+    }
+
+    private void checkReviewAndUser(int id, int userId) {
+        Map<String, Object> found = jdbcTemplate.queryForMap("SELECT " +
+                "EXISTS (SELECT 1 FROM reviews WHERE review_id = ?) AS review_found, " +
+                "EXISTS (SELECT 1 FROM users WHERE user_id = ?) AS user_found;", id, userId);
+        if (!Boolean.TRUE.equals(found.get("review_found"))) {
+            throw new ObjectNotFoundException("Отзыв с id = " + id + " не найден.");
+        }
+        if (!Boolean.TRUE.equals(found.get("user_found"))) {
+            throw new ObjectNotFoundException("Пользователь с id = " + userId + " не найден.");
+        }
+    }
+
+    private static int[] parseCursor(String cursor) {
+        String[] parts = cursor.split(",");
+        try {
+            if (parts.length == 2) {
+                return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Некорректный курсор отзывов {}.", cursor);
+        }
+        throw new ValidationException("Курсор должен иметь вид useful,reviewId.");
+    }
+
+    private boolean filmExists(int filmId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM films " +
+                "WHERE film_id = ?);", Boolean.class, filmId));
+    }
+
+    /**
+     * Добавляет к рейтингу отзывов ещё не записанные изменения. Порядок уточняется только среди прочитанных отзывов:
+     * отзыв за пределами страницы попадёт в неё после следующей записи изменений. Курсор страницы строится
+     * по записанному рейтингу, поэтому такая перестановка не приводит к пропускам и повторам между страницами.
+     */
+    private List<Review> addPendingUseful(List<Review> reviews) {
+        boolean changed = false;
+        for (Review review : reviews) {
+            int pending = reviewUsefulCounter.getPending(review.getReviewId());
+            if (pending != 0) {
+                review.setUseful(review.getUseful() + pending);
+                changed = true;
+            }
+        }
+        if (changed) {
+            reviews.sort(Comparator.comparingInt(Review::getUseful).reversed().thenComparingInt(Review::getReviewId));
+        }
+        return reviews;
     }
 }
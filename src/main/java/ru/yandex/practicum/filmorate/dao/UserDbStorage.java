@@ -1,27 +1,84 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.yandex.practicum.filmorate.enums.EventTypes;
 import ru.yandex.practicum.filmorate.enums.Operations;
 import ru.yandex.practicum.filmorate.model.Feed;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmLeaderboard.FilmLeaderboard;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarity.FilmSimilarity;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSuggestions.FilmSuggestions;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage.UserStorage;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Repository
-@RequiredArgsConstructor
 @Slf4j
 public class UserDbStorage implements UserStorage {
 
+    private static final int EXPORT_FETCH_SIZE = 500;
+    private static final int EMAIL_MAX_LENGTH = 50;
+    private static final int LOGIN_MAX_LENGTH = 20;
+    private static final int NAME_MAX_LENGTH = 20;
+
     private final JdbcTemplate jdbcTemplate;
+    private final FilmStorage filmStorage;
+    private final FilmCache filmCache;
+    private final FilmLeaderboard filmLeaderboard;
+    private final FilmSuggestions filmSuggestions;
+    private final RecommendationEngine recommendationEngine;
+    private final FilmSimilarity filmSimilarity;
+    private final FriendGraph friendGraph;
+    private final FeedDbStorage feedDbStorage;
+
+    @Autowired
+    public UserDbStorage(JdbcTemplate jdbcTemplate, FilmStorage filmStorage, FilmCache filmCache,
+                         FilmLeaderboard filmLeaderboard, FilmSuggestions filmSuggestions,
+                         RecommendationEngine recommendationEngine, FilmSimilarity filmSimilarity,
+                         FriendGraph friendGraph, FeedDbStorage feedDbStorage) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmStorage = filmStorage;
+        this.filmCache = filmCache;
+        this.filmLeaderboard = filmLeaderboard;
+        this.filmSuggestions = filmSuggestions;
+        this.recommendationEngine = recommendationEngine;
+        this.filmSimilarity = filmSimilarity;
+        this.friendGraph = friendGraph;
+        this.feedDbStorage = feedDbStorage;
+    }
+
+    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FriendGraph(jdbcTemplate, FriendGraph.DEFAULT_FAN_OUT));
+    }
+
+    private UserDbStorage(JdbcTemplate jdbcTemplate, FriendGraph friendGraph) {
+        this(jdbcTemplate, new FilmDbStorage(jdbcTemplate), new FilmCache(FilmCache.DEFAULT_CAPACITY),
+                new FilmLeaderboard(jdbcTemplate),
+                new FilmSuggestions(jdbcTemplate, FilmSuggestions.DEFAULT_TOP_SIZE),
+                new RecommendationEngine(jdbcTemplate, RecommendationEngine.DEFAULT_NEIGHBOURS,
+                        RecommendationEngine.DEFAULT_LIMIT),
+                new FilmSimilarity(jdbcTemplate, FilmSimilarity.DEFAULT_TOP_SIZE,
+                FilmSimilarity.DEFAULT_CACHE_CAPACITY), friendGraph,
+                new FeedDbStorage(jdbcTemplate, friendGraph));
+    }
 
     private void validate(User user) {
         if (user.getName() == null || user.getName().isEmpty() || user.getName().isBlank()) {
@@ -49,6 +106,74 @@ public class UserDbStorage implements UserStorage {
         return user;
     }
 
+    /**
+     * Загружает пачку пользователей одной транзакцией и одним batch insert. Пользователи, которые не поместятся
+     * в столбцы таблицы users, не пишутся, их ошибки возвращаются по позициям в списке.
+     */
+    @Override
+    @Transactional
+    public Map<Integer, String> addUsers(List<User> users) {
+        Map<Integer, String> errors = new HashMap<>();
+        List<User> valid = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            String error = checkColumns(user);
+            if (error == null) {
+                validate(user);
+                error = checkLength("name", user.getName(), NAME_MAX_LENGTH);
+            }
+            if (error == null) {
+                valid.add(user);
+            } else {
+                errors.put(i, error);
+            }
+        }
+        if (valid.isEmpty()) {
+            return errors;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO users (email, login, name, " +
+                    "birthday) VALUES (?, ?, ?, ?)", new String[]{"user_id"})) {
+                for (User user : valid) {
+                    ps.setString(1, user.getEmail());
+                    ps.setString(2, user.getLogin());
+                    ps.setString(3, user.getName());
+                    ps.setObject(4, user.getBirthday());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (int i = 0; i < valid.size() && keys.next(); i++) {
+                        valid.get(i).setId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+        return errors;
+    }
+
+    private static String checkColumns(User user) {
+        if (user.getEmail() == null || user.getEmail().isBlank()) {
+            return "Не указан email.";
+        }
+        if (user.getLogin() == null || user.getLogin().isBlank()) {
+            return "Не указан логин.";
+        }
+        if (user.getBirthday() == null) {
+            return "Не указана дата рождения.";
+        }
+        String error = checkLength("email", user.getEmail(), EMAIL_MAX_LENGTH);
+        return error != null ? error : checkLength("login", user.getLogin(), LOGIN_MAX_LENGTH);
+    }
+
+    private static String checkLength(String column, String value, int maxLength) {
+        if (value != null && value.length() > maxLength) {
+            return "Поле " + column + " длиннее " + maxLength + " символов.";
+        }
+        return null;
+    }
+
     @Override
     public User updateUser(User user) {
         if (user != null && getUser(user.getId()) != null) {
@@ -60,20 +185,69 @@ public class UserDbStorage implements UserStorage {
         return user;
     }
 
+    /**
+     * Удаляет пользователя вместе с его лайками и уменьшает счётчики лайкнутых фильмов. Кэш фильмов, топ,
+     * подсказки, рекомендации и граф друзей обновляются после фиксации транзакции, как и при лайке.
+     */
     @Override
+    @Transactional
     public boolean deleteUserById(int id) {
         if (getUser(id) != null) {
+            List<Integer> likedFilmIds = getIdFilmLikes(id);
+            jdbcTemplate.update("UPDATE films SET like_count = like_count - 1 " +
+                    "WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?);", id);
+            filmSimilarity.removeUser(likedFilmIds);
             jdbcTemplate.update("DELETE FROM users WHERE user_id = ?", id);
+            afterCommit(() -> {
+                for (Integer filmId : likedFilmIds) {
+                    filmCache.invalidate(filmId);
+                    filmLeaderboard.changeLikes(filmId, -1);
+                    filmSuggestions.changeLikes(filmId, -1);
+                }
+                recommendationEngine.removeUser(id);
+                friendGraph.removeUser(id);
+            });
             return true;
         }
         return false;
     }
 
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
     @Override
     public List<User> getUsers() {
         return jdbcTemplate.query("SELECT* FROM users", getUserMapper());
     }
 
+    @Override
+    public List<User> getUsers(int afterId, int limit) {
+        return jdbcTemplate.query("SELECT* FROM users WHERE user_id > ? ORDER BY user_id LIMIT ?",
+                getUserMapper(), afterId, limit);
+    }
+
+    @Override
+    public void exportUsers(Consumer<User> consumer) {
+        RowMapper<User> userMapper = getUserMapper();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT* FROM users ORDER BY user_id");
+            ps.setFetchSize(EXPORT_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            consumer.accept(userMapper.mapRow(rs, 0));
+        });
+    }
+
     private static RowMapper<User> getUserMapper() {
         return (rs, rowNom) -> new User(
                 rs.getInt("user_id"),
@@ -92,28 +266,30 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public User addFriend(int id, int friendId) {
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
         User user = getUser(id);
-        User friend = getUser(friendId);
-        jdbcTemplate.update("INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", id, friendId);
+        getUser(friendId);
+        boolean mutual = friendGraph.isFriend(friendId, id);
+        jdbcTemplate.update("INSERT INTO friends (user_id, friend_id, status_of_friendship) VALUES (?, ?, ?)",
+                id, friendId, mutual);
+        if (mutual) {
+            jdbcTemplate.update("UPDATE friends set status_of_friendship = TRUE WHERE user_id = ? AND friend_id = ?",
+                    friendId, id);
+        }
+        friendGraph.addFriend(id, friendId);
         feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), id, EventTypes.FRIEND.toString(),
                 Operations.ADD.toString(), friendId));
-        if (getFriendsOfUser(id).contains(friend) && getFriendsOfUser(friendId).contains(user)) {
-            jdbcTemplate.update("UPDATE friends set status_of_friendship = TRUE WHERE user_id = ? AND user_id = ?",
-                    id, friendId);
-        } else {
-            jdbcTemplate.update("UPDATE friends set status_of_friendship = FALSE WHERE user_id = ? AND user_id = ?",
-                    id, friendId);
-        }
         return user;
     }
 
     @Override
     public User deleteFriend(int id, int friendId) {
-        FeedDbStorage feedDbStorage = new FeedDbStorage(jdbcTemplate);
         User chosenUser = getUser(id);
         getUser(friendId);
         jdbcTemplate.update("DELETE FROM friends WHERE friend_id=? AND user_id = ?;", friendId, id);
+        jdbcTemplate.update("UPDATE friends set status_of_friendship = FALSE WHERE user_id = ? AND friend_id = ?",
+                friendId, id);
+        friendGraph.removeFriend(id, friendId);
+        feedDbStorage.removeFriendEvents(id, friendId);
         feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), id, EventTypes.FRIEND.toString(),
                 Operations.REMOVE.toString(), friendId));
         return chosenUser;
@@ -121,55 +297,49 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public List<User> getCommonFriends(int id, int otherId) {
-        return jdbcTemplate.query("SELECT*" +
-                " FROM users WHERE user_id" +
-                " IN(SELECT friend_id" +
-                " FROM friends WHERE user_id = ?) AND user_id" +
-                " IN(SELECT friend_id" +
-                " FROM friends WHERE user_id = ?);", UserDbStorage.getUserMapper(), id, otherId);
+        return getUsersByIds(friendGraph.getCommonFriendIds(id, otherId));
     }
 
     @Override
     public List<User> getFriendsOfUser(int id) {
         getUser(id);
-        return jdbcTemplate.query("SELECT* " +
-                "FROM users " +
-                "WHERE user_id IN(SELECT friend_id " +
-                "FROM friends WHERE user_id = ?);", UserDbStorage.getUserMapper(), id);
+        int[] friendIds = friendGraph.getFriendIds(id);
+        List<Integer> ids = new ArrayList<>(friendIds.length);
+        for (int friendId : friendIds) {
+            ids.add(friendId);
+        }
+        return getUsersByIds(ids);
     }
 
     @Override
-    public List<Film> getRecommendationsFilmsByUser(int id) {
-        List<Film> recommendationFilm = new ArrayList<>();
-        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
-        List<Integer> filmLikesByUser = getIdFilmLikes(id);
-        List<Integer> commonUserId = getIdUserFromLikes(id);
-        if (commonUserId.size() == 0) {
-            return recommendationFilm;
+    public List<User> getFriendSuggestions(int id, int count) {
+        getUser(id);
+        return getUsersByIds(friendGraph.suggestFriendIds(id, count));
+    }
+
+    /**
+     * Загружает пользователей одним запросом и возвращает их в порядке переданных id.
+     */
+    private List<User> getUsersByIds(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
         }
-        List<Integer> filmId = new ArrayList<>();
-        for (Integer userId : commonUserId) {
-            List<Integer> filmByFriend = getIdFilmLikes(userId);
-            for (Integer filmIdFriend : filmByFriend) {
-                if (!filmLikesByUser.contains(filmIdFriend)) {
-                    filmId.add(filmIdFriend);
-                }
+        Map<Integer, User> usersById = new HashMap<>();
+        jdbcTemplate.query("SELECT* FROM users WHERE user_id = ANY(?)", UserDbStorage.getUserMapper(),
+                new Object[]{ids.toArray()}).forEach(user -> usersById.put(user.getId(), user));
+        List<User> users = new ArrayList<>(usersById.size());
+        for (Integer userId : ids) {
+            User user = usersById.get(userId);
+            if (user != null) {
+                users.add(user);
             }
         }
-        Set<Integer> originFilmId = new HashSet<>(filmId);
-        for (Integer filmIdRecommendation : originFilmId) {
-            recommendationFilm.add(filmDbStorage.getFilm(filmIdRecommendation));
-        }
-        return recommendationFilm;
+        return users;
     }
 
-    private List<Integer> getIdUserFromLikes(int id) {
-        String sql = "SELECT user_id FROM LIKES " +
-                "WHERE film_id IN " +
-                "(SELECT film_id FROM LIKES WHERE user_id = ? );";
-        return jdbcTemplate.query(sql,
-                (rs, rowNum) -> rs.getInt("user_id"),
-                id);
+    @Override
+    public List<Film> getRecommendationsFilmsByUser(int id) {
+        return filmStorage.getFilmsByIds(recommendationEngine.recommend(id));
     }
 
     private List<Integer> getIdFilmLikes(int userId) {
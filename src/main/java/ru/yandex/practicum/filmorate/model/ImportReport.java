@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог пакетной загрузки: сколько строк записано, сколько отклонено и почему.
+ * В errors попадают первые MAX_ERRORS ошибок с номерами строк, failed учитывает все.
+ */
+@Data
+public class ImportReport {
+
+    public static final int MAX_ERRORS = 1000;
+
+    private int imported;
+    private int failed;
+    private final List<LineError> errors = new ArrayList<>();
+
+    public void addImported(int count) {
+        imported += count;
+    }
+
+    public void addError(int line, String message) {
+        failed++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(new LineError(line, message));
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class LineError {
+        private int line;
+        private String message;
+    }
+}
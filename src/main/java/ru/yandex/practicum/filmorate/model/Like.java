@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+
+/**
+ * Лайк пользователя фильму, строка пакетной загрузки лайков.
+ */
+@Data
+@AllArgsConstructor
+@Builder
+public class Like {
+    @NotNull
+    @Positive
+    private Integer filmId;
+    @NotNull
+    @Positive
+    private Integer userId;
+}
@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Страница выборки при постраничном чтении по ключу.
+ * nextCursor - значение курсора (afterId, beforeEventId, cursor отзывов) для запроса следующей страницы,
+ * null если страница последняя.
+ */
+@Data
+@AllArgsConstructor
+public class Page<T> {
+    private List<T> items;
+    private String nextCursor;
+}
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Состояние последнего пакетного расчёта рекомендаций. Если расчёта ещё не было, все поля равны null.
+ */
+@Data
+@AllArgsConstructor
+public class RecommendationStats {
+    private Long computedAt;
+    private Long durationMillis;
+    private Integer userCount;
+    private Long stalenessMillis;
+}
@@ -0,0 +1,13 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.yandex.practicum.filmorate.enums.SuggestionTypes;
+
+@Data
+@AllArgsConstructor
+public class Suggestion {
+    private SuggestionTypes type;
+    private Integer id;
+    private String name;
+}
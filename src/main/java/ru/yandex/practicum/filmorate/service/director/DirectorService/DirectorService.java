@@ -5,6 +5,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
 
 import java.util.List;
 
@@ -14,6 +15,7 @@ import java.util.List;
 public class DirectorService {
 
     private final DirectorStorage directorStorage;
+    private final FilmCache filmCache;
 
     public Director addDirector(Director director) {
         log.info("Информация о режиссере успешно создана!");
@@ -21,8 +23,12 @@ public class DirectorService {
     }
 
     public Director updateDirector(Director director) {
+        Director updatedDirector = directorStorage.updateDirector(director);
+        if (updatedDirector != null) {
+            filmCache.invalidateByDirector(updatedDirector.getId());
+        }
         log.info("Информация о режиссере успешно обновлена!");
-        return directorStorage.updateDirector(director);
+        return updatedDirector;
     }
 
     public Director getDirector(int id) {
@@ -36,7 +42,9 @@ public class DirectorService {
     }
 
     public boolean deleteDirector(int id) {
+        boolean isDeleted = directorStorage.deleteDirector(id);
+        filmCache.invalidateByDirector(id);
         log.info("Информация о выбранном режиссере успешно удалена!");
-        return directorStorage.deleteDirector(id);
+        return isDeleted;
     }
 }
@@ -2,9 +2,13 @@ package ru.yandex.practicum.filmorate.service.feed.FeedService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.storage.feed.FeedStorage.FeedStorage;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
 
 import java.util.List;
 
@@ -14,9 +18,41 @@ import java.util.List;
 public class FeedService {
 
     private final FeedStorage feedStorage;
+    @Value("${filmorate.pagination.max-limit:1000}")
+    private int maxPageSize;
 
-    public List<Feed> getFeedByUserId(int id) {
+    public Page<Feed> getFeedByUserId(int id, Integer beforeEventId, Integer limit) {
+        int pageSize = getPageSize(beforeEventId, limit);
+        Page<Feed> page = toPage(feedStorage.getFeedByUserId(id, beforeEventId, pageSize), pageSize);
         log.info("Лента событий для выбранного пользователя успешно получена!");
-        return feedStorage.getFeedByUserId(id);
+        return page;
+    }
+
+    public Page<Feed> getTimeline(int id, Integer beforeEventId, Integer limit) {
+        int pageSize = getPageSize(beforeEventId, limit);
+        Page<Feed> page = toPage(feedStorage.getTimeline(id, beforeEventId, pageSize), pageSize);
+        log.info("Лента друзей для выбранного пользователя успешно получена!");
+        return page;
+    }
+
+    public FeedSubscriptions.Subscription subscribe(int id, Integer lastEventId, FeedSubscriptions.Sink sink) {
+        if (lastEventId != null && lastEventId < 0) {
+            throw new ValidationException("Параметр Last-Event-ID не может быть отрицательным.");
+        }
+        FeedSubscriptions.Subscription subscription = feedStorage.subscribe(id, lastEventId, sink);
+        log.info("Пользователь {} подписан на ленту событий.", id);
+        return subscription;
+    }
+
+    private int getPageSize(Integer beforeEventId, Integer limit) {
+        if ((beforeEventId != null && beforeEventId <= 0) || (limit != null && limit <= 0)) {
+            throw new ValidationException("Параметры beforeEventId и limit должны быть положительными.");
+        }
+        return limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+    }
+
+    private Page<Feed> toPage(List<Feed> feeds, int pageSize) {
+        String nextCursor = feeds.size() == pageSize ? String.valueOf(feeds.get(feeds.size() - 1).getEventId()) : null;
+        return new Page<>(feeds, nextCursor);
     }
 }
@@ -2,11 +2,18 @@ package ru.yandex.practicum.filmorate.service.film.FilmService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.Suggestion;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage.FilmStorage;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @RequiredArgsConstructor
 @Service
@@ -14,12 +21,26 @@ import java.util.List;
 public class FilmService {
 
     private final FilmStorage filmStorage;
+    @Value("${filmorate.pagination.max-limit:1000}")
+    private int maxPageSize;
 
     public Film addFilm(Film film) {
         log.info("Фильм успешно добавлен!");
         return filmStorage.addFilm(film);
     }
 
+    public Map<Integer, String> addFilms(List<Film> films) {
+        Map<Integer, String> errors = filmStorage.addFilms(films);
+        log.info("Загружена пачка фильмов: записано {}, отклонено {}.", films.size() - errors.size(), errors.size());
+        return errors;
+    }
+
+    public Map<Integer, String> addLikes(List<Like> likes) {
+        Map<Integer, String> errors = filmStorage.addLikes(likes);
+        log.info("Загружена пачка лайков: обработано {}, отклонено {}.", likes.size() - errors.size(), errors.size());
+        return errors;
+    }
+
     public Film updateFilm(Film film) {
         log.info("Фильм успешно обновлен!");
         return filmStorage.updateFilm(film);
@@ -35,6 +56,22 @@ public class FilmService {
         return filmStorage.getFilms();
     }
 
+    public Page<Film> getFilms(int afterId, Integer limit) {
+        if (afterId < 0 || (limit != null && limit <= 0)) {
+            throw new ValidationException("Параметры afterId и limit должны быть положительными.");
+        }
+        int pageSize = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+        List<Film> films = filmStorage.getFilms(afterId, pageSize);
+        String nextCursor = films.size() == pageSize ? String.valueOf(films.get(films.size() - 1).getId()) : null;
+        log.info("Получена страница фильмов после id = {}, размер страницы {}.", afterId, films.size());
+        return new Page<>(films, nextCursor);
+    }
+
+    public void exportFilms(Consumer<Film> consumer) {
+        log.info("Начата выгрузка всех фильмов.");
+        filmStorage.exportFilms(consumer);
+    }
+
     public boolean deleteFilmById(int id) {
         log.info("Выбранный фильм успешно удален!");
         return filmStorage.deleteFilmById(id);
@@ -69,4 +106,18 @@ public class FilmService {
         log.info("Успешно найден фильм по переданным параметрам!");
         return filmStorage.getFilmsByNameOrNameAndDirector(query, by);
     }
+
+    public List<Suggestion> getSuggestions(String prefix, int limit) {
+        if (limit <= 0) {
+            throw new ValidationException("Параметр limit должен быть положительным.");
+        }
+        return filmStorage.getSuggestions(prefix, limit);
+    }
+
+    public List<Film> getSimilarFilms(int id, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным.");
+        }
+        return filmStorage.getSimilarFilms(id, count);
+    }
 }
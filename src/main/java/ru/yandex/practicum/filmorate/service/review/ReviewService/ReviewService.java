@@ -2,18 +2,21 @@ package ru.yandex.practicum.filmorate.service.review.ReviewService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage.ReviewStorage;
 
-import java.util.List;
-
 @RequiredArgsConstructor
 @Service
 @Slf4j
 public class ReviewService {
 
     private final ReviewStorage reviewStorage;
+    @Value("${filmorate.pagination.max-limit:1000}")
+    private int maxPageSize;
 
     public Review addReview(Review review) {
         log.info("Отзыв успешно добавлен!");
@@ -30,9 +33,13 @@ public class ReviewService {
         return reviewStorage.getReview(id);
     }
 
-    public List<Review> getReviewOfFilm(Integer filmId, Integer count) {
+    public Page<Review> getReviewOfFilm(Integer filmId, String cursor, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным.");
+        }
+        Page<Review> page = reviewStorage.getReviewOfFilm(filmId, cursor, Math.min(count, maxPageSize));
         log.info("Получена информация об отзывах на фильм " + filmId);
-        return reviewStorage.getReviewOfFilm(filmId, count);
+        return page;
     }
 
     public boolean deleteReview(int id) {
@@ -1,21 +1,32 @@
 package ru.yandex.practicum.filmorate.service.user.UserService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.RecommendationStats;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage.UserStorage;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class UserService {
 
     private final UserStorage userStorage;
+    private final RecommendationEngine recommendationEngine;
+    @Value("${filmorate.pagination.max-limit:1000}")
+    private int maxPageSize;
 
     @Autowired
-    public UserService(UserStorage userStorage) {
+    public UserService(UserStorage userStorage, RecommendationEngine recommendationEngine) {
         this.userStorage = userStorage;
+        this.recommendationEngine = recommendationEngine;
     }
 
     public User addFriend(int id, int friendId) {
@@ -34,6 +45,13 @@ public class UserService {
         return userStorage.getFriendsOfUser(id);
     }
 
+    public List<User> getFriendSuggestions(int id, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным.");
+        }
+        return userStorage.getFriendSuggestions(id, count);
+    }
+
     public User getUser(int id) {
         return userStorage.getUser(id);
     }
@@ -42,6 +60,10 @@ public class UserService {
         return userStorage.addUser(user);
     }
 
+    public Map<Integer, String> addUsers(List<User> users) {
+        return userStorage.addUsers(users);
+    }
+
     public User updateUser(User user) {
         return userStorage.updateUser(user);
     }
@@ -50,6 +72,20 @@ public class UserService {
         return userStorage.getUsers();
     }
 
+    public Page<User> getUsers(int afterId, Integer limit) {
+        if (afterId < 0 || (limit != null && limit <= 0)) {
+            throw new ValidationException("Параметры afterId и limit должны быть положительными.");
+        }
+        int pageSize = limit == null ? maxPageSize : Math.min(limit, maxPageSize);
+        List<User> users = userStorage.getUsers(afterId, pageSize);
+        String nextCursor = users.size() == pageSize ? String.valueOf(users.get(users.size() - 1).getId()) : null;
+        return new Page<>(users, nextCursor);
+    }
+
+    public void exportUsers(Consumer<User> consumer) {
+        userStorage.exportUsers(consumer);
+    }
+
     public boolean deleteUserById(int id) {
         return userStorage.deleteUserById(id);
     }
@@ -57,4 +93,8 @@ public class UserService {
     public List<Film> getRecommendationsFilms(int id) {
         return userStorage.getRecommendationsFilmsByUser(id);
     }
+
+    public RecommendationStats getRecommendationStats() {
+        return recommendationEngine.getStats();
+    }
 }
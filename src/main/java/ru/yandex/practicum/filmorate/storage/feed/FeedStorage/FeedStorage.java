@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.storage.feed.FeedStorage;
 
 import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
 
 import java.util.List;
 
@@ -8,5 +9,19 @@ public interface FeedStorage {
 
     void createFeed(Feed feed);
 
-    List<Feed> getFeedByUserId(int id);
+    /**
+     * Возвращает не больше limit событий пользователя с id меньше beforeEventId, начиная с последних.
+     * Если beforeEventId равен null, чтение идёт с самого нового события.
+     */
+    List<Feed> getFeedByUserId(int id, Integer beforeEventId, int limit);
+
+    /**
+     * Возвращает страницу ленты друзей пользователя в том же порядке и с тем же курсором, что и getFeedByUserId.
+     */
+    List<Feed> getTimeline(int id, Integer beforeEventId, int limit);
+
+    /**
+     * Подписывает на новые события пользователя. Если передан lastEventId, сначала досылаются события после него.
+     */
+    FeedSubscriptions.Subscription subscribe(int id, Integer lastEventId, FeedSubscriptions.Sink sink);
 }
@@ -0,0 +1,243 @@
+package ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Feed;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Подписки на новые события ленты пользователя. FeedWriter передаёт сюда события после фиксации их записи, а
+ * подписки раскладывают их по своим буферам. Отправку подписчикам выполняет небольшой общий пул потоков, поэтому
+ * запись ленты не ждёт медленных клиентов, а простаивающая подписка не держит ни потока, ни буфера.
+ * Буфер подписки ограничен bufferSize событиями: если клиент не успевает их забирать, подписка закрывается,
+ * и клиент переподключается с последним полученным id, пропущенные события досылаются из базы.
+ */
+@Component
+@Slf4j
+public class FeedSubscriptions {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+    public static final int DEFAULT_DISPATCH_THREADS = 2;
+
+    private final int bufferSize;
+    private final int dispatchThreads;
+    private final ConcurrentMap<Integer, Set<Subscription>> subscriptionsByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile ExecutorService dispatcher;
+
+    public FeedSubscriptions(@Value("${filmorate.feed.stream.buffer-size:" + DEFAULT_BUFFER_SIZE + "}")
+                             int bufferSize,
+                             @Value("${filmorate.feed.stream.dispatch-threads:" + DEFAULT_DISPATCH_THREADS + "}")
+                             int dispatchThreads) {
+        this.bufferSize = bufferSize;
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    /**
+     * Подписывает на новые события пользователя. Если передан lastEventId, сначала из replay досылаются
+     * события с большим id, затем новые.
+     */
+    public Subscription subscribe(int userId, Integer lastEventId, Sink sink, Replay replay) {
+        Subscription subscription = new Subscription(userId, sink, lastEventId == null ? 0 : lastEventId,
+                lastEventId == null ? null : replay);
+        subscriptionsByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        size.incrementAndGet();
+        if (lastEventId != null) {
+            subscription.schedule();
+        }
+        return subscription;
+    }
+
+    public void publish(List<Feed> feeds) {
+        for (Feed feed : feeds) {
+            Set<Subscription> subscriptions = subscriptionsByUser.get(feed.getUserId());
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.offer(feed);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    @PreDestroy
+    public void stop() {
+        List<Subscription> subscriptions = new ArrayList<>();
+        subscriptionsByUser.values().forEach(subscriptions::addAll);
+        subscriptions.forEach(Subscription::cancel);
+        ExecutorService executor = dispatcher;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        subscriptionsByUser.computeIfPresent(subscription.userId, (id, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+        size.decrementAndGet();
+    }
+
+    private ExecutorService getDispatcher() {
+        ExecutorService executor = dispatcher;
+        if (executor == null) {
+            synchronized (this) {
+                if (dispatcher == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    dispatcher = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+                        Thread thread = new Thread(runnable, "feed-stream-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                executor = dispatcher;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Получатель событий подписки, например соединение SSE.
+     */
+    public interface Sink {
+        void send(Feed feed) throws IOException;
+
+        void close();
+    }
+
+    /**
+     * Источник пропущенных событий: не больше limit событий пользователя с id больше eventId по возрастанию id.
+     */
+    @FunctionalInterface
+    public interface Replay {
+        List<Feed> after(int eventId, int limit);
+    }
+
+    public final class Subscription {
+        private final int userId;
+        private final Sink sink;
+        private Replay replay;
+        private ArrayDeque<Feed> buffer;
+        private int lastSentId;
+        private boolean scheduled;
+        private boolean closed;
+
+        private Subscription(int userId, Sink sink, int lastSentId, Replay replay) {
+            this.userId = userId;
+            this.sink = sink;
+            this.lastSentId = lastSentId;
+            this.replay = replay;
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                buffer = null;
+            }
+            remove(this);
+            sink.close();
+        }
+
+        private void offer(Feed feed) {
+            boolean overflow;
+            boolean dispatch = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (buffer == null) {
+                    buffer = new ArrayDeque<>();
+                }
+                overflow = buffer.size() >= bufferSize;
+                if (!overflow) {
+                    buffer.add(feed);
+                    dispatch = !scheduled;
+                    scheduled = true;
+                }
+            }
+            if (overflow) {
+                log.info("Подписчик ленты пользователя {} не успевает получать события, подписка закрыта.", userId);
+                cancel();
+            } else if (dispatch) {
+                dispatch();
+            }
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (closed || scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            try {
+                getDispatcher().execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                cancel();
+            }
+        }
+
+        private void drain() {
+            try {
+                if (replay != null) {
+                    catchUp();
+                }
+                while (true) {
+                    Feed feed;
+                    synchronized (this) {
+                        feed = closed ? null : buffer == null ? null : buffer.poll();
+                        if (feed == null) {
+                            scheduled = false;
+                            buffer = null;
+                            return;
+                        }
+                    }
+                    if (feed.getEventId() > lastSentId) {
+                        sink.send(feed);
+                        lastSentId = feed.getEventId();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Подписка на ленту пользователя {} закрыта: {}", userId, e.getMessage());
+                cancel();
+            }
+        }
+
+        private void catchUp() throws IOException {
+            Replay source = replay;
+            replay = null;
+            List<Feed> feeds;
+            do {
+                feeds = source.after(lastSentId, bufferSize);
+                for (Feed feed : feeds) {
+                    sink.send(feed);
+                    lastSentId = feed.getEventId();
+                }
+            } while (feeds.size() == bufferSize);
+        }
+    }
+}
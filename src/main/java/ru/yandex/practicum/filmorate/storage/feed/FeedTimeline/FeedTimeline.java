@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.storage.feed.FeedTimeline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Лента друзей, собираемая при записи: каждое событие копируется во входящие (таблица timeline) всех, кто добавил
+ * автора в друзья. Во входящих хранится не больше capacity последних событий: лишние удаляются раз в capacity / 10
+ * добавлений пользователю, так что между чистками записей бывает до 10% больше.
+ * События авторов, которых добавили в друзья больше celebrityFollowers пользователей, не копируются, а читаются из feed
+ * при запросе ленты: одна запись такого автора не превращается в тысячи вставок.
+ */
+@Component
+public class FeedTimeline {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final int DEFAULT_CELEBRITY_FOLLOWERS = 1000;
+
+    private static final String INSERT = "INSERT INTO timeline (user_id, event_id) VALUES (?, ?)";
+    private static final String TRIM = "DELETE FROM timeline WHERE user_id = ? AND event_id < " +
+            "(SELECT event_id FROM timeline WHERE user_id = ? ORDER BY user_id, event_id DESC LIMIT 1 OFFSET ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FriendGraph friendGraph;
+    private final int capacity;
+    private final int celebrityFollowers;
+    private final int trimInterval;
+    private final ConcurrentMap<Integer, AtomicInteger> addedSinceTrim = new ConcurrentHashMap<>();
+
+    public FeedTimeline(JdbcTemplate jdbcTemplate, FriendGraph friendGraph,
+                        @Value("${filmorate.feed.timeline.capacity:" + DEFAULT_CAPACITY + "}") int capacity,
+                        @Value("${filmorate.feed.timeline.celebrity-followers:" + DEFAULT_CELEBRITY_FOLLOWERS + "}")
+                        int celebrityFollowers) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.friendGraph = friendGraph;
+        this.capacity = capacity;
+        this.celebrityFollowers = celebrityFollowers;
+        this.trimInterval = Math.max(1, capacity / 10);
+    }
+
+    public boolean isCelebrity(int userId) {
+        return friendGraph.getFollowerIds(userId).length > celebrityFollowers;
+    }
+
+    /**
+     * Возвращает id друзей пользователя, чьи события не копируются во входящие и должны читаться из feed.
+     */
+    public List<Integer> getCelebrityFriendIds(int userId) {
+        List<Integer> celebrityIds = new ArrayList<>();
+        for (int friendId : friendGraph.getFriendIds(userId)) {
+            if (isCelebrity(friendId)) {
+                celebrityIds.add(friendId);
+            }
+        }
+        return celebrityIds;
+    }
+
+    /**
+     * Копирует записанные события во входящие тех, кто добавил их авторов в друзья. Вызывается на соединении
+     * и в транзакции, которыми события записываются в feed.
+     */
+    public void fanOut(Connection connection, List<Feed> feeds) throws SQLException {
+        Set<Integer> toTrim = new HashSet<>();
+        try (PreparedStatement ps = connection.prepareStatement(INSERT)) {
+            int rows = 0;
+            for (Feed feed : feeds) {
+                int[] followerIds = friendGraph.getFollowerIds(feed.getUserId());
+                if (followerIds.length > celebrityFollowers) {
+                    continue;
+                }
+                for (int followerId : followerIds) {
+                    ps.setInt(1, followerId);
+                    ps.setInt(2, feed.getEventId());
+                    ps.addBatch();
+                    rows++;
+                    if (addedSinceTrim.computeIfAbsent(followerId, id -> new AtomicInteger())
+                            .incrementAndGet() >= trimInterval) {
+                        toTrim.add(followerId);
+                    }
+                }
+            }
+            if (rows > 0) {
+                ps.executeBatch();
+            }
+        }
+        if (toTrim.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(TRIM)) {
+            for (int userId : toTrim) {
+                addedSinceTrim.remove(userId);
+                ps.setInt(1, userId);
+                ps.setInt(2, userId);
+                ps.setInt(3, capacity - 1);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Убирает из входящих пользователя события того, кого он удалил из друзей.
+     */
+    public void removeFriend(int userId, int friendId) {
+        jdbcTemplate.update("DELETE FROM timeline WHERE user_id = ? AND EXISTS (SELECT 1 FROM feed " +
+                "WHERE feed.event_id = timeline.event_id AND feed.user_id = ?);", userId, friendId);
+    }
+}
@@ -0,0 +1,275 @@
+package ru.yandex.practicum.filmorate.storage.feed.FeedWriter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
+import ru.yandex.practicum.filmorate.storage.feed.FeedTimeline.FeedTimeline;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отложенная запись событий ленты. События складываются в ограниченную очередь и записываются отдельным потоком
+ * пачками через batch insert: пачка уходит, когда набралось batchSize событий или прошло flushIntervalMillis с первого
+ * события в ней. Если очередь заполнена, добавляющий поток ждёт. Внутри транзакции событие попадает в очередь только
+ * после её фиксации. Пока поток записи не запущен, события пишутся сразу в вызывающем потоке.
+ * В той же транзакции события раскладываются по лентам друзей через FeedTimeline, а после её фиксации передаются
+ * подписчикам FeedSubscriptions.
+ */
+@Component
+@Slf4j
+public class FeedWriter {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    private static final String INSERT = "INSERT INTO feed (timestamp, user_id, event_type, operation, entity_id) " +
+            "VALUES (?, ?, ?, ?, ?)";
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+    private static final Entry STOP = new Entry(null, null);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FeedTimeline feedTimeline;
+    private final FeedSubscriptions feedSubscriptions;
+    private final BlockingQueue<Entry> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private volatile Thread writerThread;
+
+    public FeedWriter(JdbcTemplate jdbcTemplate, FeedTimeline feedTimeline, FeedSubscriptions feedSubscriptions,
+                      @Value("${filmorate.feed.writer.capacity:" + DEFAULT_CAPACITY + "}") int capacity,
+                      @Value("${filmorate.feed.writer.batch-size:" + DEFAULT_BATCH_SIZE + "}") int batchSize,
+                      @Value("${filmorate.feed.writer.flush-interval-ms:" + DEFAULT_FLUSH_INTERVAL_MILLIS + "}")
+                      long flushIntervalMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.feedTimeline = feedTimeline;
+        this.feedSubscriptions = feedSubscriptions;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (writerThread == null) {
+            Thread thread = new Thread(this::drain, "feed-writer");
+            thread.setDaemon(true);
+            writerThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Останавливает поток записи, дописав всё, что уже стоит в очереди.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        Thread thread = writerThread;
+        if (thread == null) {
+            return;
+        }
+        writerThread = null;
+        try {
+            queue.put(STOP);
+            thread.join(TimeUnit.SECONDS.toMillis(FLUSH_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        List<Feed> feeds = new ArrayList<>(rest.size());
+        for (Entry entry : rest) {
+            if (entry.feed != null) {
+                feeds.add(entry.feed);
+            } else if (entry.flushed != null) {
+                entry.flushed.countDown();
+            }
+        }
+        write(feeds);
+        log.info("Запись ленты остановлена.");
+    }
+
+    public void submit(Feed feed) {
+        if (writerThread == null) {
+            writeNow(List.of(feed));
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(feed);
+                }
+            });
+        } else {
+            enqueue(feed);
+        }
+    }
+
+    /**
+     * Ждёт, пока будут записаны все события, добавленные в очередь до вызова.
+     */
+    public void flush() {
+        if (writerThread == null) {
+            return;
+        }
+        Entry barrier = new Entry(null, new CountDownLatch(1));
+        try {
+            queue.put(barrier);
+            if (!barrier.flushed.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Не удалось дождаться записи ленты за {} с.", FLUSH_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Feed feed) {
+        try {
+            queue.put(new Entry(feed, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write(List.of(feed));
+        }
+    }
+
+    private void drain() {
+        List<Feed> feeds = new ArrayList<>(batchSize);
+        long deadline = 0;
+        while (true) {
+            Entry entry;
+            try {
+                entry = feeds.isEmpty() ? queue.take()
+                        : queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                entry = STOP;
+            }
+            if (entry != null && entry.feed != null) {
+                if (feeds.isEmpty()) {
+                    deadline = System.nanoTime() + flushIntervalNanos;
+                }
+                feeds.add(entry.feed);
+                if (feeds.size() < batchSize) {
+                    continue;
+                }
+            }
+            write(feeds);
+            feeds.clear();
+            if (entry == STOP) {
+                return;
+            }
+            if (entry != null && entry.flushed != null) {
+                entry.flushed.countDown();
+            }
+        }
+    }
+
+    /**
+     * Записывает пачку в потоке записи: ошибка не должна его останавливать, поэтому она логируется, а пачка,
+     * не прошедшая целиком (например, из-за удалённого пользователя), дописывается по одному событию.
+     */
+    private void write(List<Feed> feeds) {
+        if (feeds.isEmpty()) {
+            return;
+        }
+        try {
+            writeNow(feeds);
+        } catch (RuntimeException e) {
+            if (feeds.size() == 1) {
+                log.error("Не удалось записать событие ленты {}.", feeds.get(0), e);
+                return;
+            }
+            log.warn("Пачка из {} событий ленты не записалась, события будут записаны по одному.", feeds.size());
+            for (Feed feed : feeds) {
+                write(List.of(feed));
+            }
+        }
+    }
+
+    /**
+     * Пишет события одной транзакцией. Если вызов уже идёт внутри транзакции Spring, события пишутся в ней,
+     * а подписчики получают их после её фиксации.
+     */
+    private void writeNow(List<Feed> feeds) {
+        boolean ownTransaction = !TransactionSynchronizationManager.isActualTransactionActive();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            if (ownTransaction) {
+                connection.setAutoCommit(false);
+            }
+            try {
+                insert(connection, feeds);
+                feedTimeline.fanOut(connection, feeds);
+                if (ownTransaction) {
+                    connection.commit();
+                }
+            } catch (RuntimeException | SQLException e) {
+                if (ownTransaction) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            return null;
+        });
+        if (!ownTransaction && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    feedSubscriptions.publish(feeds);
+                }
+            });
+        } else {
+            feedSubscriptions.publish(feeds);
+        }
+    }
+
+    private static void insert(Connection connection, List<Feed> feeds) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(INSERT, new String[]{"event_id"})) {
+            for (Feed feed : feeds) {
+                ps.setLong(1, feed.getTimestamp());
+                ps.setInt(2, feed.getUserId());
+                ps.setString(3, feed.getEventType());
+                ps.setString(4, feed.getOperation());
+                ps.setInt(5, feed.getEntityId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                for (int i = 0; i < feeds.size() && keys.next(); i++) {
+                    feeds.get(i).setEventId(keys.getInt(1));
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Feed feed;
+        private final CountDownLatch flushed;
+
+        private Entry(Feed feed, CountDownLatch flushed) {
+            this.feed = feed;
+            this.flushed = flushed;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.yandex.practicum.filmorate.storage.film.FilmCache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.function.IntFunction;
+
+/**
+ * Ограниченный по размеру кэш полностью собранных фильмов. Вытеснение учитывает частоту обращений (W-TinyLFU),
+ * поэтому популярные фильмы не вымываются разовыми запросами. Записи сбрасываются точечно при изменении фильма
+ * или его режиссёров.
+ */
+@Component
+public class FilmCache {
+
+    public static final long DEFAULT_CAPACITY = 10_000;
+
+    private final Cache<Integer, Film> films;
+
+    public FilmCache(@Value("${filmorate.cache.films.capacity:" + DEFAULT_CAPACITY + "}") long capacity) {
+        this.films = Caffeine.newBuilder()
+                .maximumSize(capacity)
+                .recordStats()
+                .build();
+    }
+
+    public Film get(int id, IntFunction<Film> loader) {
+        return films.get(id, key -> loader.apply(key));
+    }
+
+    public Film getIfPresent(int id) {
+        return films.getIfPresent(id);
+    }
+
+    public void invalidate(int id) {
+        films.invalidate(id);
+    }
+
+    public void invalidateByDirector(int directorId) {
+        films.asMap().values().removeIf(film -> film.getDirectors() != null && film.getDirectors().stream()
+                .anyMatch(director -> director.getId() == directorId));
+    }
+
+    public void invalidateAll() {
+        films.invalidateAll();
+    }
+
+    public long getSize() {
+        return films.estimatedSize();
+    }
+
+    public long getHitCount() {
+        return films.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return films.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return films.stats().evictionCount();
+    }
+
+    public void cleanUp() {
+        films.cleanUp();
+    }
+}
@@ -0,0 +1,170 @@
+package ru.yandex.practicum.filmorate.storage.film.FilmLeaderboard;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Рейтинги фильмов по количеству лайков: общий, по каждому жанру и по каждому году выпуска.
+ * Рейтинги хранятся в {@link ConcurrentSkipListSet}, поэтому лайк обновляет их за O(log n), а чтение
+ * не блокируется параллельными записями. При равном количестве лайков фильмы упорядочены по id.
+ * Если заданы и жанр, и год, просматривается рейтинг года (он обычно короче) с фильтрацией по жанру.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FilmLeaderboard {
+
+    private static final Comparator<FilmRank> ORDER = Comparator.comparingInt((FilmRank rank) -> -rank.likeCount)
+            .thenComparingInt(rank -> rank.filmId);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<Integer, FilmRank> ranks = new ConcurrentHashMap<>();
+    private final NavigableSet<FilmRank> overall = new ConcurrentSkipListSet<>(ORDER);
+    private final ConcurrentMap<Integer, NavigableSet<FilmRank>> byGenre = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, NavigableSet<FilmRank>> byYear = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    @PostConstruct
+    public synchronized void reload() {
+        Map<Integer, Set<Integer>> genresByFilm = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, genre_id FROM film_genre;", rs -> {
+            genresByFilm.computeIfAbsent(rs.getInt("film_id"), id -> new HashSet<>()).add(rs.getInt("genre_id"));
+        });
+        ranks.clear();
+        overall.clear();
+        byGenre.clear();
+        byYear.clear();
+        jdbcTemplate.query("SELECT film_id, like_count, release_date FROM films;", rs -> {
+            int filmId = rs.getInt("film_id");
+            FilmRank rank = new FilmRank(filmId, rs.getInt("like_count"),
+                    rs.getObject("release_date", LocalDate.class).getYear(),
+                    genresByFilm.getOrDefault(filmId, Set.of()));
+            ranks.put(filmId, rank);
+            addToBoards(rank);
+        });
+        loaded = true;
+        log.info("Рейтинг популярных фильмов построен, фильмов в рейтинге: {}.", ranks.size());
+    }
+
+    public List<Integer> getTopFilmIds(int count, int genreId, int year) {
+        ensureLoaded();
+        NavigableSet<FilmRank> board = overall;
+        if (year > 0) {
+            board = byYear.getOrDefault(year, Collections.emptyNavigableSet());
+        } else if (genreId > 0) {
+            board = byGenre.getOrDefault(genreId, Collections.emptyNavigableSet());
+        }
+        List<Integer> filmIds = new ArrayList<>(Math.min(count, 64));
+        Set<Integer> seen = new HashSet<>();
+        Iterator<FilmRank> iterator = board.iterator();
+        while (filmIds.size() < count && iterator.hasNext()) {
+            FilmRank rank = iterator.next();
+            if (rank.matches(genreId, year) && seen.add(rank.filmId)) {
+                filmIds.add(rank.filmId);
+            }
+        }
+        return filmIds;
+    }
+
+    public int getLikeCount(int filmId) {
+        ensureLoaded();
+        FilmRank rank = ranks.get(filmId);
+        return rank == null ? 0 : rank.likeCount;
+    }
+
+    public void putFilm(int filmId, LocalDate releaseDate, Collection<Integer> genreIds) {
+        if (!loaded) {
+            return;
+        }
+        ranks.compute(filmId, (id, old) -> {
+            FilmRank updated = new FilmRank(filmId, old == null ? 0 : old.likeCount, releaseDate.getYear(),
+                    new HashSet<>(genreIds));
+            if (old != null) {
+                removeFromBoards(old);
+            }
+            addToBoards(updated);
+            return updated;
+        });
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        if (!loaded || delta == 0) {
+            return;
+        }
+        ranks.computeIfPresent(filmId, (id, old) -> {
+            FilmRank updated = new FilmRank(filmId, old.likeCount + delta, old.year, old.genreIds);
+            addToBoards(updated);
+            removeFromBoards(old);
+            return updated;
+        });
+    }
+
+    public void removeFilm(int filmId) {
+        if (!loaded) {
+            return;
+        }
+        ranks.computeIfPresent(filmId, (id, old) -> {
+            removeFromBoards(old);
+            return null;
+        });
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private void addToBoards(FilmRank rank) {
+        overall.add(rank);
+        byYear.computeIfAbsent(rank.year, year -> new ConcurrentSkipListSet<>(ORDER)).add(rank);
+        for (Integer genreId : rank.genreIds) {
+            byGenre.computeIfAbsent(genreId, id -> new ConcurrentSkipListSet<>(ORDER)).add(rank);
+        }
+    }
+
+    private void removeFromBoards(FilmRank rank) {
+        overall.remove(rank);
+        NavigableSet<FilmRank> yearBoard = byYear.get(rank.year);
+        if (yearBoard != null) {
+            yearBoard.remove(rank);
+        }
+        for (Integer genreId : rank.genreIds) {
+            NavigableSet<FilmRank> genreBoard = byGenre.get(genreId);
+            if (genreBoard != null) {
+                genreBoard.remove(rank);
+            }
+        }
+    }
+
+    private static final class FilmRank {
+        private final int filmId;
+        private final int likeCount;
+        private final int year;
+        private final Set<Integer> genreIds;
+
+        private FilmRank(int filmId, int likeCount, int year, Set<Integer> genreIds) {
+            this.filmId = filmId;
+            this.likeCount = likeCount;
+            this.year = year;
+            this.genreIds = genreIds;
+        }
+
+        private boolean matches(int genreId, int year) {
+            return (genreId <= 0 || genreIds.contains(genreId)) && (year <= 0 || this.year == year);
+        }
+    }
+}
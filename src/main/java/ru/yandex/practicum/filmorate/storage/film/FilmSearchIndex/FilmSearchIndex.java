@@ -0,0 +1,219 @@
+package ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс по триграммам названий фильмов и имён режиссёров для поиска подстроки.
+ * Кандидаты берутся из самого короткого списка триграмм запроса и проверяются через {@link String#contains},
+ * поэтому результат совпадает с LIKE '%query%' без учёта регистра (включая кириллицу).
+ * Запросы короче триграммы проверяются перебором строк в памяти.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FilmSearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> titles = new HashMap<>();
+    private final Map<String, Set<Integer>> titleGrams = new HashMap<>();
+    private final Map<Integer, String> directorNames = new HashMap<>();
+    private final Map<String, Set<Integer>> directorGrams = new HashMap<>();
+    private final Map<Integer, Set<Integer>> filmsByDirector = new HashMap<>();
+    private final Map<Integer, Set<Integer>> directorsByFilm = new HashMap<>();
+    private volatile boolean loaded;
+
+    @PostConstruct
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            titles.clear();
+            titleGrams.clear();
+            directorNames.clear();
+            directorGrams.clear();
+            filmsByDirector.clear();
+            directorsByFilm.clear();
+            jdbcTemplate.query("SELECT film_id, name FROM films;", rs -> {
+                index(titles, titleGrams, rs.getInt("film_id"), rs.getString("name"));
+            });
+            jdbcTemplate.query("SELECT director_id, name FROM directors;", rs -> {
+                index(directorNames, directorGrams, rs.getInt("director_id"), rs.getString("name"));
+            });
+            jdbcTemplate.query("SELECT film_id, director_id FROM film_director;", rs -> {
+                link(rs.getInt("film_id"), rs.getInt("director_id"));
+            });
+            loaded = true;
+            log.info("Поисковый индекс построен, фильмов: {}, режиссёров: {}.", titles.size(), directorNames.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<Integer> search(String query, boolean byTitle, boolean byDirector) {
+        ensureLoaded();
+        String needle = normalize(query);
+        Set<Integer> filmIds = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            if (byTitle) {
+                filmIds.addAll(match(titles, titleGrams, needle));
+            }
+            if (byDirector) {
+                for (Integer directorId : match(directorNames, directorGrams, needle)) {
+                    filmIds.addAll(filmsByDirector.getOrDefault(directorId, Set.of()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return filmIds;
+    }
+
+    public void putFilm(int filmId, String title, Collection<Integer> directorIds) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeFilmEntries(filmId);
+            index(titles, titleGrams, filmId, title);
+            for (Integer directorId : directorIds) {
+                link(filmId, directorId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(int filmId) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeFilmEntries(filmId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putDirector(int directorId, String name) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            unindex(directorNames, directorGrams, directorId);
+            index(directorNames, directorGrams, directorId, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeDirector(int directorId) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            unindex(directorNames, directorGrams, directorId);
+            Set<Integer> filmIds = filmsByDirector.remove(directorId);
+            if (filmIds != null) {
+                for (Integer filmId : filmIds) {
+                    removeFromPostings(directorsByFilm, filmId, directorId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private static List<Integer> match(Map<Integer, String> texts, Map<String, Set<Integer>> grams, String needle) {
+        Collection<Integer> candidates = texts.keySet();
+        if (needle.length() >= GRAM_LENGTH) {
+            for (int i = 0; i + GRAM_LENGTH <= needle.length(); i++) {
+                Set<Integer> postings = grams.get(needle.substring(i, i + GRAM_LENGTH));
+                if (postings == null) {
+                    return List.of();
+                }
+                if (postings.size() < candidates.size()) {
+                    candidates = postings;
+                }
+            }
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Integer id : candidates) {
+            if (texts.get(id).contains(needle)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private void removeFilmEntries(int filmId) {
+        unindex(titles, titleGrams, filmId);
+        Set<Integer> directorIds = directorsByFilm.remove(filmId);
+        if (directorIds != null) {
+            for (Integer directorId : directorIds) {
+                removeFromPostings(filmsByDirector, directorId, filmId);
+            }
+        }
+    }
+
+    private void link(int filmId, int directorId) {
+        filmsByDirector.computeIfAbsent(directorId, id -> new HashSet<>()).add(filmId);
+        directorsByFilm.computeIfAbsent(filmId, id -> new HashSet<>()).add(directorId);
+    }
+
+    private static void index(Map<Integer, String> texts, Map<String, Set<Integer>> grams, int id, String text) {
+        String normalized = normalize(text);
+        texts.put(id, normalized);
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            grams.computeIfAbsent(normalized.substring(i, i + GRAM_LENGTH), gram -> new HashSet<>()).add(id);
+        }
+    }
+
+    private static void unindex(Map<Integer, String> texts, Map<String, Set<Integer>> grams, int id) {
+        String normalized = texts.remove(id);
+        if (normalized == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            removeFromPostings(grams, normalized.substring(i, i + GRAM_LENGTH), id);
+        }
+    }
+
+    private static <K> void removeFromPostings(Map<K, Set<Integer>> postings, K key, int id) {
+        Set<Integer> ids = postings.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,349 @@
+package ru.yandex.practicum.filmorate.storage.film.FilmSimilarity;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Топ-N соседей каждого фильма по совместным лайкам: сколько пользователей лайкнули оба фильма.
+ * В таблице film_co_likes хранится не вся матрица пар, а только topSize лучших соседей на фильм, в памяти -
+ * ограниченный кэш этих топов. Лайк в транзакции ничего здесь не пишет: после фиксации он встаёт в очередь, и раз
+ * в flush-interval-ms очередь разбирается одной пачкой. Для пар, затронутых лайками пачки, число совместных лайков
+ * считается заново по likes одним запросом на лайкнутый фильм и вливается в сохранённые топы. Полностью топ фильма
+ * пересчитывается, только если убранный лайк уменьшил пару из заполненного топа: тогда её место может занять сосед,
+ * которого в топе не было.
+ */
+@Component
+@Slf4j
+public class FilmSimilarity {
+
+    public static final int DEFAULT_TOP_SIZE = 20;
+    public static final long DEFAULT_CACHE_CAPACITY = 10_000;
+
+    private static final Comparator<Neighbour> ORDER = Comparator.comparingInt((Neighbour neighbour) ->
+            -neighbour.coLikes).thenComparingInt(neighbour -> neighbour.filmId);
+    private static final String TOP = "SELECT b.film_id AS other_film_id, COUNT(*) AS co_likes FROM likes AS a " +
+            "JOIN likes AS b ON a.user_id = b.user_id AND b.film_id <> a.film_id WHERE a.film_id = ? " +
+            "GROUP BY b.film_id ORDER BY co_likes DESC, other_film_id LIMIT ?;";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int topSize;
+    private final Cache<Integer, List<Integer>> topByFilm;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final Set<Integer> staleFilmIds = ConcurrentHashMap.newKeySet();
+
+    public FilmSimilarity(JdbcTemplate jdbcTemplate,
+                          @Value("${filmorate.films.similar.top-size:" + DEFAULT_TOP_SIZE + "}") int topSize,
+                          @Value("${filmorate.films.similar.cache-capacity:" + DEFAULT_CACHE_CAPACITY + "}")
+                          long cacheCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.topSize = topSize;
+        this.topByFilm = Caffeine.newBuilder()
+                .maximumSize(cacheCapacity)
+                .build();
+    }
+
+    /**
+     * Заполняет пустую таблицу film_co_likes топами по уже существующим лайкам.
+     */
+    @PostConstruct
+    public void reload() {
+        Boolean empty = jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM film_co_likes);",
+                Boolean.class);
+        if (Boolean.TRUE.equals(empty)) {
+            int pairs = jdbcTemplate.update("INSERT INTO film_co_likes (film_id, other_film_id, co_likes) " +
+                    "SELECT film_id, other_film_id, co_likes FROM (" +
+                    "SELECT film_id, other_film_id, co_likes, ROW_NUMBER() OVER (PARTITION BY film_id " +
+                    "ORDER BY co_likes DESC, other_film_id) AS position FROM (" +
+                    "SELECT a.film_id, b.film_id AS other_film_id, COUNT(*) AS co_likes FROM likes AS a " +
+                    "JOIN likes AS b ON a.user_id = b.user_id AND a.film_id <> b.film_id " +
+                    "GROUP BY a.film_id, b.film_id) AS pairs) AS ranked " +
+                    "WHERE position <= ?;", topSize);
+            log.info("Топы похожих фильмов построены по существующим лайкам, пар фильмов: {}.", pairs);
+        }
+        topByFilm.invalidateAll();
+    }
+
+    public List<Integer> getSimilarFilmIds(int filmId, int count) {
+        List<Integer> top = topByFilm.get(filmId, id -> jdbcTemplate.queryForList(
+                "SELECT other_film_id FROM film_co_likes WHERE film_id = ? " +
+                        "ORDER BY co_likes DESC, other_film_id LIMIT ?;", Integer.class, id, topSize));
+        return top.subList(0, Math.min(count, top.size()));
+    }
+
+    public void addLike(int userId, int filmId) {
+        afterCommit(() -> changes.add(new Change(userId, filmId, false)));
+    }
+
+    public void addLikes(Map<Integer, List<Integer>> newFilmIdsByUser) {
+        afterCommit(() -> newFilmIdsByUser.forEach((userId, filmIds) -> {
+            for (Integer filmId : filmIds) {
+                changes.add(new Change(userId, filmId, false));
+            }
+        }));
+    }
+
+    public void removeLike(int userId, int filmId) {
+        afterCommit(() -> changes.add(new Change(userId, filmId, true)));
+    }
+
+    /**
+     * Помечает для пересчёта фильмы, лайки которых уходят вместе с пользователем.
+     */
+    public void removeUser(Collection<Integer> likedFilmIds) {
+        afterCommit(() -> staleFilmIds.addAll(likedFilmIds));
+    }
+
+    /**
+     * Вызывается до удаления фильма: его строки удалит каскад, а фильмы, в топе которых он был, пересчитываются.
+     */
+    public void removeFilm(int filmId) {
+        List<Integer> filmIds = jdbcTemplate.queryForList("SELECT film_id FROM film_co_likes " +
+                "WHERE other_film_id = ?;", Integer.class, filmId);
+        afterCommit(() -> {
+            topByFilm.invalidate(filmId);
+            staleFilmIds.addAll(filmIds);
+        });
+    }
+
+    /**
+     * Разбирает накопленные лайки и возвращает число фильмов, чей топ изменился.
+     */
+    @Scheduled(initialDelayString = "${filmorate.films.similar.flush-interval-ms:1000}",
+            fixedDelayString = "${filmorate.films.similar.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized int flush() {
+        List<Change> batch = new ArrayList<>();
+        for (Change change = changes.poll(); change != null; change = changes.poll()) {
+            batch.add(change);
+        }
+        Set<Integer> stale = new HashSet<>();
+        for (Integer filmId : staleFilmIds) {
+            staleFilmIds.remove(filmId);
+            stale.add(filmId);
+        }
+        if (batch.isEmpty() && stale.isEmpty()) {
+            return 0;
+        }
+
+        Map<Integer, List<Integer>> filmIdsByUser = new HashMap<>();
+        Set<Integer> userIds = new HashSet<>();
+        batch.forEach(change -> userIds.add(change.userId));
+        if (!userIds.isEmpty()) {
+            jdbcTemplate.query("SELECT user_id, film_id FROM likes WHERE user_id = ANY(?);", rs -> {
+                filmIdsByUser.computeIfAbsent(rs.getInt("user_id"), id -> new ArrayList<>())
+                        .add(rs.getInt("film_id"));
+            }, new Object[]{userIds.toArray()});
+        }
+        Map<Integer, Set<Integer>> otherFilmIdsByFilm = new HashMap<>();
+        Map<Integer, Set<Integer>> decreasedByFilm = new HashMap<>();
+        for (Change change : batch) {
+            Set<Integer> otherFilmIds = otherFilmIdsByFilm.computeIfAbsent(change.filmId, id -> new HashSet<>());
+            for (int otherFilmId : filmIdsByUser.getOrDefault(change.userId, List.of())) {
+                if (otherFilmId == change.filmId) {
+                    continue;
+                }
+                otherFilmIds.add(otherFilmId);
+                if (change.removed) {
+                    decreasedByFilm.computeIfAbsent(change.filmId, id -> new HashSet<>()).add(otherFilmId);
+                    decreasedByFilm.computeIfAbsent(otherFilmId, id -> new HashSet<>()).add(change.filmId);
+                }
+            }
+        }
+
+        Map<Integer, Map<Integer, Integer>> countsByFilm = new HashMap<>();
+        otherFilmIdsByFilm.forEach((filmId, otherFilmIds) -> {
+            if (otherFilmIds.isEmpty()) {
+                return;
+            }
+            Map<Integer, Integer> counts = new HashMap<>();
+            otherFilmIds.forEach(otherFilmId -> counts.put(otherFilmId, 0));
+            jdbcTemplate.query("SELECT b.film_id, COUNT(*) AS co_likes FROM likes AS a " +
+                    "JOIN likes AS b ON a.user_id = b.user_id WHERE a.film_id = ? AND b.film_id = ANY(?) " +
+                    "GROUP BY b.film_id;", rs -> {
+                counts.put(rs.getInt("film_id"), rs.getInt("co_likes"));
+            }, filmId, otherFilmIds.toArray());
+            counts.forEach((otherFilmId, coLikes) -> {
+                countsByFilm.computeIfAbsent(filmId, id -> new HashMap<>()).put(otherFilmId, coLikes);
+                countsByFilm.computeIfAbsent(otherFilmId, id -> new HashMap<>()).put(filmId, coLikes);
+            });
+        });
+
+        Set<Integer> touched = new HashSet<>(countsByFilm.keySet());
+        touched.addAll(stale);
+        if (touched.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, List<Neighbour>> stored = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, other_film_id, co_likes FROM film_co_likes WHERE film_id = ANY(?) " +
+                        "ORDER BY film_id, co_likes DESC, other_film_id;", rs -> {
+                    stored.computeIfAbsent(rs.getInt("film_id"), id -> new ArrayList<>())
+                            .add(new Neighbour(rs.getInt("other_film_id"), rs.getInt("co_likes")));
+                }, new Object[]{touched.toArray()});
+
+        Map<Integer, List<Neighbour>> tops = new HashMap<>();
+        for (Integer filmId : touched) {
+            List<Neighbour> old = stored.getOrDefault(filmId, List.of());
+            List<Neighbour> top = stale.contains(filmId) ? null
+                    : merge(old, countsByFilm.getOrDefault(filmId, Map.of()),
+                    decreasedByFilm.getOrDefault(filmId, Set.of()));
+            if (top == null) {
+                top = jdbcTemplate.query(TOP, (rs, rowNum) -> new Neighbour(rs.getInt("other_film_id"),
+                        rs.getInt("co_likes")), filmId, topSize);
+            }
+            if (!top.equals(old)) {
+                tops.put(filmId, top);
+            }
+        }
+        try {
+            write(tops);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось записать топы похожих фильмов, они будут пересчитаны заново.", e);
+            staleFilmIds.addAll(tops.keySet());
+            return 0;
+        }
+        topByFilm.invalidateAll(tops.keySet());
+        log.debug("Разобрано лайков: {}, обновлены топы похожих у {} фильмов.", batch.size(), tops.size());
+        return tops.size();
+    }
+
+    /**
+     * Вливает свежие счётчики пар в сохранённый топ. Возвращает null, если топ был заполнен и из него ушла или
+     * уменьшилась пара: без полного пересчёта неизвестно, какой сосед займёт её место.
+     */
+    private List<Neighbour> merge(List<Neighbour> old, Map<Integer, Integer> counts, Set<Integer> decreased) {
+        List<Neighbour> top = new ArrayList<>(old.size() + counts.size());
+        for (Neighbour neighbour : old) {
+            if (!counts.containsKey(neighbour.filmId)) {
+                top.add(neighbour);
+            } else if (old.size() >= topSize && decreased.contains(neighbour.filmId)) {
+                return null;
+            }
+        }
+        counts.forEach((otherFilmId, coLikes) -> {
+            if (coLikes > 0) {
+                top.add(new Neighbour(otherFilmId, coLikes));
+            }
+        });
+        top.sort(ORDER);
+        return top.size() > topSize ? new ArrayList<>(top.subList(0, topSize)) : top;
+    }
+
+    /**
+     * Заменяет топы фильмов одной транзакцией; внутри транзакции Spring пишет в ней.
+     */
+    private void write(Map<Integer, List<Neighbour>> tops) {
+        if (tops.isEmpty()) {
+            return;
+        }
+        boolean ownTransaction = !TransactionSynchronizationManager.isActualTransactionActive();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            if (ownTransaction) {
+                connection.setAutoCommit(false);
+            }
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM film_co_likes WHERE film_id = ?;");
+                 PreparedStatement insert = connection.prepareStatement(
+                         "INSERT INTO film_co_likes (film_id, other_film_id, co_likes) VALUES (?, ?, ?);")) {
+                for (Map.Entry<Integer, List<Neighbour>> entry : tops.entrySet()) {
+                    delete.setInt(1, entry.getKey());
+                    delete.addBatch();
+                    for (Neighbour neighbour : entry.getValue()) {
+                        insert.setInt(1, entry.getKey());
+                        insert.setInt(2, neighbour.filmId);
+                        insert.setInt(3, neighbour.coLikes);
+                        insert.addBatch();
+                    }
+                }
+                delete.executeBatch();
+                insert.executeBatch();
+                if (ownTransaction) {
+                    connection.commit();
+                }
+            } catch (RuntimeException | SQLException e) {
+                if (ownTransaction) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static final class Change {
+        private final int userId;
+        private final int filmId;
+        private final boolean removed;
+
+        private Change(int userId, int filmId, boolean removed) {
+            this.userId = userId;
+            this.filmId = filmId;
+            this.removed = removed;
+        }
+    }
+
+    private static final class Neighbour {
+        private final int filmId;
+        private final int coLikes;
+
+        private Neighbour(int filmId, int coLikes) {
+            this.filmId = filmId;
+            this.coLikes = coLikes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Neighbour)) {
+                return false;
+            }
+            Neighbour other = (Neighbour) o;
+            return filmId == other.filmId && coLikes == other.coLikes;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * filmId + coLikes;
+        }
+    }
+}
@@ -1,21 +1,39 @@
 package ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Suggestion;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
     Film addFilm(Film film);
 
+    Map<Integer, String> addFilms(List<Film> films);
+
     Film updateFilm(Film film);
 
     List<Film> getFilms();
 
+    List<Film> getFilms(int afterId, int limit);
+
+    void exportFilms(Consumer<Film> consumer);
+
+    List<Film> getFilmsByIds(List<Integer> ids);
+
+    List<Suggestion> getSuggestions(String prefix, int limit);
+
+    List<Film> getSimilarFilms(int id, int count);
+
     Film getFilm(int id);
 
     boolean like(int id, int userId);
 
+    Map<Integer, String> addLikes(List<Like> likes);
+
     boolean deleteLike(int id, int userId);
 
     List<Film> getTopFilms(Integer count, Integer genreId, Integer year);
@@ -0,0 +1,402 @@
+package ru.yandex.practicum.filmorate.storage.film.FilmSuggestions;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.enums.SuggestionTypes;
+import ru.yandex.practicum.filmorate.model.Suggestion;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Префиксное дерево подсказок по названиям фильмов и именам режиссёров.
+ * В дерево попадает каждое слово названия вместе с остатком строки, поэтому «псы» находит «Бешеные псы».
+ * Каждый узел хранит готовый топ самых популярных записей своего поддерева: у фильма популярность - число лайков,
+ * у режиссёра - сумма лайков его фильмов. Изменение записи пересчитывает топы только на путях её ключей,
+ * а лайк трогает лишь те узлы этих путей, чей топ от него действительно меняется.
+ */
+@Component
+@Slf4j
+public class FilmSuggestions {
+
+    public static final int DEFAULT_TOP_SIZE = 10;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry entry) -> -entry.likes)
+            .thenComparing(entry -> entry.key)
+            .thenComparing(entry -> entry.type)
+            .thenComparingInt(entry -> entry.id);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int topSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    private final Map<Integer, Entry> films = new HashMap<>();
+    private final Map<Integer, Entry> directors = new HashMap<>();
+    private final Map<Integer, Set<Integer>> directorsByFilm = new HashMap<>();
+    private volatile boolean loaded;
+
+    public FilmSuggestions(JdbcTemplate jdbcTemplate,
+                           @Value("${filmorate.search.suggest.top-size:" + DEFAULT_TOP_SIZE + "}") int topSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.topSize = topSize;
+    }
+
+    @PostConstruct
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            root.children.clear();
+            root.terminal.clear();
+            root.top = new Entry[0];
+            films.clear();
+            directors.clear();
+            directorsByFilm.clear();
+            Map<Integer, Integer> directorLikes = new HashMap<>();
+            jdbcTemplate.query("SELECT fd.film_id, fd.director_id, f.like_count FROM film_director AS fd " +
+                    "JOIN films AS f ON fd.film_id = f.film_id;", rs -> {
+                int directorId = rs.getInt("director_id");
+                directorsByFilm.computeIfAbsent(rs.getInt("film_id"), id -> new HashSet<>()).add(directorId);
+                directorLikes.merge(directorId, rs.getInt("like_count"), Integer::sum);
+            });
+            jdbcTemplate.query("SELECT film_id, name, like_count FROM films;", rs -> {
+                Entry entry = new Entry(SuggestionTypes.FILM, rs.getInt("film_id"), rs.getString("name"),
+                        rs.getInt("like_count"));
+                films.put(entry.id, entry);
+                replace(null, entry);
+            });
+            jdbcTemplate.query("SELECT director_id, name FROM directors;", rs -> {
+                int directorId = rs.getInt("director_id");
+                Entry entry = new Entry(SuggestionTypes.DIRECTOR, directorId, rs.getString("name"),
+                        directorLikes.getOrDefault(directorId, 0));
+                directors.put(directorId, entry);
+                replace(null, entry);
+            });
+            loaded = true;
+            log.info("Дерево подсказок построено, фильмов: {}, режиссёров: {}.", films.size(), directors.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Suggestion> suggest(String prefix, int limit) {
+        ensureLoaded();
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.children.get(key.charAt(i));
+            }
+            if (node == null) {
+                return List.of();
+            }
+            List<Suggestion> suggestions = new ArrayList<>();
+            for (int i = 0; i < node.top.length && i < limit; i++) {
+                Entry entry = node.top[i];
+                suggestions.add(new Suggestion(entry.type, entry.id, entry.name));
+            }
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void putFilm(int filmId, String title, Collection<Integer> directorIds) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = films.get(filmId);
+            int likes = old == null ? 0 : old.likes;
+            Set<Integer> oldDirectorIds = directorsByFilm.getOrDefault(filmId, Set.of());
+            Set<Integer> newDirectorIds = new HashSet<>(directorIds);
+            for (Integer directorId : oldDirectorIds) {
+                if (!newDirectorIds.contains(directorId)) {
+                    changeDirectorLikes(directorId, -likes);
+                }
+            }
+            for (Integer directorId : newDirectorIds) {
+                if (!oldDirectorIds.contains(directorId)) {
+                    changeDirectorLikes(directorId, likes);
+                }
+            }
+            directorsByFilm.put(filmId, newDirectorIds);
+            Entry updated = new Entry(SuggestionTypes.FILM, filmId, title, likes);
+            films.put(filmId, updated);
+            replace(old, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        if (!loaded || delta == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = films.get(filmId);
+            if (old == null) {
+                return;
+            }
+            Entry updated = new Entry(old.type, old.id, old.name, old.likes + delta);
+            films.put(filmId, updated);
+            rerank(old, updated);
+            for (Integer directorId : directorsByFilm.getOrDefault(filmId, Set.of())) {
+                changeDirectorLikes(directorId, delta);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(int filmId) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = films.remove(filmId);
+            Set<Integer> directorIds = directorsByFilm.remove(filmId);
+            if (old == null) {
+                return;
+            }
+            replace(old, null);
+            if (directorIds != null) {
+                for (Integer directorId : directorIds) {
+                    changeDirectorLikes(directorId, -old.likes);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putDirector(int directorId, String name) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = directors.get(directorId);
+            Entry updated = new Entry(SuggestionTypes.DIRECTOR, directorId, name, old == null ? 0 : old.likes);
+            directors.put(directorId, updated);
+            replace(old, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeDirector(int directorId) {
+        if (!loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry old = directors.remove(directorId);
+            if (old != null) {
+                replace(old, null);
+            }
+            for (Set<Integer> directorIds : directorsByFilm.values()) {
+                directorIds.remove(directorId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private void changeDirectorLikes(int directorId, int delta) {
+        Entry old = directors.get(directorId);
+        if (old == null || delta == 0) {
+            return;
+        }
+        Entry updated = new Entry(old.type, old.id, old.name, old.likes + delta);
+        directors.put(directorId, updated);
+        rerank(old, updated);
+    }
+
+    private void replace(Entry old, Entry updated) {
+        if (old != null) {
+            for (String key : keys(old.key)) {
+                remove(key, old);
+            }
+        }
+        if (updated != null) {
+            for (String key : keys(updated.key)) {
+                insert(key, updated);
+            }
+        }
+    }
+
+    /**
+     * Меняет популярность записи при тех же ключах. Узлы всех её путей обходятся снизу вверх по глубине, так что
+     * к узлу его дети уже обновлены. Узел трогается, только если изменился его ребёнок или это конец ключа;
+     * если топ узла от изменения не поменялся, родителя он не трогает.
+     */
+    private void rerank(Entry old, Entry updated) {
+        Map<Node, Node> parents = new HashMap<>();
+        Map<Node, Integer> depths = new HashMap<>();
+        Set<Node> changed = new HashSet<>();
+        depths.put(root, 0);
+        for (String key : keys(old.key)) {
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                Node child = node.children.get(key.charAt(i));
+                parents.put(child, node);
+                depths.put(child, i + 1);
+                node = child;
+            }
+            node.terminal.set(node.terminal.indexOf(old), updated);
+            changed.add(node);
+        }
+        List<Node> nodes = new ArrayList<>(depths.keySet());
+        nodes.sort(Comparator.comparing(depths::get, Comparator.reverseOrder()));
+        for (Node node : nodes) {
+            if (changed.contains(node) && rerank(node, old, updated) && node != root) {
+                changed.add(parents.get(node));
+            }
+        }
+    }
+
+    /**
+     * Заменяет в топе узла старую запись новой. Полный пересчёт по детям нужен, только если старая запись была
+     * в заполненном топе, а новая выпала за его последнее место: тогда место может занять запись, которой в топе
+     * не было. Возвращает false, если топ не изменился.
+     */
+    private boolean rerank(Node node, Entry old, Entry updated) {
+        Entry[] top = node.top;
+        int oldIndex = -1;
+        for (int i = 0; i < top.length && oldIndex < 0; i++) {
+            if (top[i] == old) {
+                oldIndex = i;
+            }
+        }
+        boolean fitsTop = top.length < topSize || top.length > 0 && ORDER.compare(updated, top[top.length - 1]) < 0;
+        if (!fitsTop) {
+            if (oldIndex < 0) {
+                return false;
+            }
+            node.top = collectTop(node);
+            return true;
+        }
+        List<Entry> entries = new ArrayList<>(Arrays.asList(top));
+        if (oldIndex >= 0) {
+            entries.remove(oldIndex);
+        } else if (entries.size() == topSize) {
+            entries.remove(entries.size() - 1);
+        }
+        entries.add(-Collections.binarySearch(entries, updated, ORDER) - 1, updated);
+        node.top = entries.toArray(new Entry[0]);
+        return true;
+    }
+
+    private void insert(String key, Entry entry) {
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            path.add(node);
+        }
+        node.terminal.add(entry);
+        recompute(path, key);
+    }
+
+    private void remove(String key, Entry entry) {
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.get(key.charAt(i));
+            if (node == null) {
+                return;
+            }
+            path.add(node);
+        }
+        node.terminal.remove(entry);
+        recompute(path, key);
+    }
+
+    private void recompute(List<Node> path, String key) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            if (i > 0 && node.terminal.isEmpty() && node.children.isEmpty()) {
+                path.get(i - 1).children.remove(key.charAt(i - 1));
+                continue;
+            }
+            node.top = collectTop(node);
+        }
+    }
+
+    private Entry[] collectTop(Node node) {
+        List<Entry> candidates = new ArrayList<>(node.terminal);
+        for (Node child : node.children.values()) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        candidates.sort(ORDER);
+        List<Entry> top = new ArrayList<>(topSize);
+        for (Entry candidate : candidates) {
+            if (top.size() == topSize) {
+                break;
+            }
+            if (top.isEmpty() || top.get(top.size() - 1) != candidate) {
+                top.add(candidate);
+            }
+        }
+        return top.toArray(new Entry[0]);
+    }
+
+    private static List<String> keys(String normalized) {
+        List<String> keys = new ArrayList<>();
+        if (!normalized.isEmpty()) {
+            keys.add(normalized);
+        }
+        for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+            keys.add(normalized.substring(i + 1));
+        }
+        return keys;
+    }
+
+    private static String normalize(String text) {
+        return SEPARATORS.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private final List<Entry> terminal = new ArrayList<>(1);
+        private Entry[] top = new Entry[0];
+    }
+
+    private static final class Entry {
+        private final SuggestionTypes type;
+        private final int id;
+        private final String name;
+        private final String key;
+        private final int likes;
+
+        private Entry(SuggestionTypes type, int id, String name, int likes) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.key = normalize(name);
+            this.likes = likes;
+        }
+    }
+}
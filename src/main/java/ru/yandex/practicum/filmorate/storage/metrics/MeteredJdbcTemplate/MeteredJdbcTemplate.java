@@ -0,0 +1,121 @@
+package ru.yandex.practicum.filmorate.storage.metrics.MeteredJdbcTemplate;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.metrics.StorageMetrics.StorageMetrics;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+
+/**
+ * JdbcTemplate приложения, сообщающий StorageMetrics о выполненных запросах и прочитанных строках.
+ * Запросом считается каждый созданный JdbcTemplate объект Statement (пачка batchUpdate - один запрос) и каждый
+ * ConnectionCallback. Строки считаются по размеру списка, который вернул RowMapper, и по вызовам
+ * RowCallbackHandler; обёртка обработчика одна на поток, поэтому подсчёт ничего не выделяет на запрос.
+ */
+@Component
+public class MeteredJdbcTemplate extends JdbcTemplate {
+
+    private final StorageMetrics storageMetrics;
+    private final ThreadLocal<CountingRowCallbackHandler> rowCounters;
+
+    public MeteredJdbcTemplate(DataSource dataSource, StorageMetrics storageMetrics) {
+        super(dataSource);
+        this.storageMetrics = storageMetrics;
+        this.rowCounters = ThreadLocal.withInitial(() -> new CountingRowCallbackHandler(storageMetrics));
+    }
+
+    @Override
+    public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
+        storageMetrics.countStatement();
+        return super.execute(action);
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        storageMetrics.countStatement();
+        super.applyStatementSettings(stmt);
+    }
+
+    @Override
+    public <T> T query(String sql, ResultSetExtractor<T> rse) throws DataAccessException {
+        return countRows(super.query(sql, rse));
+    }
+
+    @Override
+    public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse)
+            throws DataAccessException {
+        return countRows(super.query(psc, pss, rse));
+    }
+
+    @Override
+    public void query(String sql, RowCallbackHandler rch) throws DataAccessException {
+        CountingRowCallbackHandler counter = rowCounters.get();
+        RowCallbackHandler outer = counter.delegate;
+        counter.delegate = rch;
+        try {
+            super.query(sql, counter);
+        } finally {
+            counter.delegate = outer;
+        }
+    }
+
+    @Override
+    public void query(PreparedStatementCreator psc, RowCallbackHandler rch) throws DataAccessException {
+        CountingRowCallbackHandler counter = rowCounters.get();
+        RowCallbackHandler outer = counter.delegate;
+        counter.delegate = rch;
+        try {
+            super.query(psc, counter);
+        } finally {
+            counter.delegate = outer;
+        }
+    }
+
+    @Override
+    public void query(String sql, PreparedStatementSetter pss, RowCallbackHandler rch) throws DataAccessException {
+        CountingRowCallbackHandler counter = rowCounters.get();
+        RowCallbackHandler outer = counter.delegate;
+        counter.delegate = rch;
+        try {
+            super.query(sql, pss, counter);
+        } finally {
+            counter.delegate = outer;
+        }
+    }
+
+    private <T> T countRows(T result) {
+        if (result instanceof Collection) {
+            storageMetrics.countRows(((Collection<?>) result).size());
+        }
+        return result;
+    }
+
+    /**
+     * Передаёт строки текущему обработчику потока. Вложенный запрос из обработчика подменяет его на время
+     * своего выполнения и затем возвращает.
+     */
+    private static final class CountingRowCallbackHandler implements RowCallbackHandler {
+        private final StorageMetrics storageMetrics;
+        private RowCallbackHandler delegate;
+
+        private CountingRowCallbackHandler(StorageMetrics storageMetrics) {
+            this.storageMetrics = storageMetrics;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            storageMetrics.countRows(1);
+            delegate.processRow(rs);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.yandex.practicum.filmorate.storage.metrics.StorageMetrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Метрики методов хранилищ: число вызовов, гистограмма времени выполнения, число SQL-запросов и прочитанных строк.
+ * Счётчики метода создаются при первом его вызове, дальше вызов пишет только в заранее созданные {@link LongAdder}
+ * и в поля потокового {@link Probe}, ничего не выделяя. Запросы и строки считает MeteredJdbcTemplate и относит
+ * их к выполняющемуся в потоке методу хранилища; вложенный вызов хранилища входит и во внешний.
+ * Метрики отдаются в текстовом формате Prometheus.
+ */
+@Component
+public class StorageMetrics implements MethodInterceptor {
+
+    private static final double[] BUCKETS_SECONDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+            0.5, 1, 2.5, 5};
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+    private static final String[] BUCKET_LABELS = new String[BUCKETS_SECONDS.length + 1];
+    private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+
+    static {
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKETS_SECONDS[i]).stripTrailingZeros().toPlainString();
+        }
+        BUCKET_LABELS[BUCKETS_SECONDS.length] = "+Inf";
+    }
+
+    private final ConcurrentMap<Method, MethodStats> statsByMethod = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MethodStats> statsByName = new ConcurrentSkipListMap<>();
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        MethodStats stats = getStats(invocation);
+        Probe probe = PROBE.get();
+        long outerStatements = probe.statements;
+        long outerRows = probe.rows;
+        probe.statements = 0;
+        probe.rows = 0;
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            failed = false;
+            return result;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            long statements = probe.statements;
+            long rows = probe.rows;
+            stats.record(nanos, statements, rows, failed);
+            probe.statements = outerStatements + statements;
+            probe.rows = outerRows + rows;
+        }
+    }
+
+    /**
+     * Учитывает SQL-запрос, выполненный в текущем потоке.
+     */
+    public void countStatement() {
+        PROBE.get().statements++;
+    }
+
+    /**
+     * Учитывает строки, прочитанные в текущем потоке.
+     */
+    public void countRows(long rows) {
+        PROBE.get().rows += rows;
+    }
+
+    /**
+     * Возвращает метрики в текстовом формате Prometheus 0.0.4.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(1024 + statsByName.size() * 2048);
+        header(out, "filmorate_storage_call_duration_seconds", "histogram",
+                "Время выполнения методов хранилищ, _count - число вызовов.");
+        for (MethodStats stats : statsByName.values()) {
+            long count = 0;
+            for (int i = 0; i < stats.buckets.length; i++) {
+                count += stats.buckets[i].sum();
+                sample(out, "filmorate_storage_call_duration_seconds_bucket", stats, BUCKET_LABELS[i])
+                        .append(count).append('\n');
+            }
+            sample(out, "filmorate_storage_call_duration_seconds_sum", stats, null)
+                    .append((double) stats.nanos.sum() / TimeUnit.SECONDS.toNanos(1)).append('\n');
+            sample(out, "filmorate_storage_call_duration_seconds_count", stats, null).append(count).append('\n');
+        }
+        counter(out, "filmorate_storage_statements_total", "SQL-запросы, выполненные методами хранилищ.",
+                stats -> stats.statements);
+        counter(out, "filmorate_storage_rows_total", "Строки, прочитанные методами хранилищ.", stats -> stats.rows);
+        counter(out, "filmorate_storage_errors_total", "Вызовы методов хранилищ, завершившиеся исключением.",
+                stats -> stats.errors);
+        return out.toString();
+    }
+
+    /**
+     * Возвращает метрики хранилищ вместе со счётчиками кэша фильмов: попадания, промахи, вытеснения и размер.
+     */
+    public String scrape(FilmCache filmCache) {
+        StringBuilder out = new StringBuilder(scrape());
+        header(out, "filmorate_film_cache_hits_total", "counter", "Фильмы, отданные из кэша.");
+        out.append("filmorate_film_cache_hits_total ").append(filmCache.getHitCount()).append('\n');
+        header(out, "filmorate_film_cache_misses_total", "counter", "Фильмы, которых не было в кэше.");
+        out.append("filmorate_film_cache_misses_total ").append(filmCache.getMissCount()).append('\n');
+        header(out, "filmorate_film_cache_evictions_total", "counter", "Фильмы, вытесненные из кэша по размеру.");
+        out.append("filmorate_film_cache_evictions_total ").append(filmCache.getEvictionCount()).append('\n');
+        header(out, "filmorate_film_cache_size", "gauge", "Примерное число фильмов в кэше.");
+        out.append("filmorate_film_cache_size ").append(filmCache.getSize()).append('\n');
+        return out.toString();
+    }
+
+    private MethodStats getStats(MethodInvocation invocation) {
+        Method method = invocation.getMethod();
+        MethodStats stats = statsByMethod.get(method);
+        if (stats != null) {
+            return stats;
+        }
+        Object target = invocation.getThis();
+        String storage = target == null ? method.getDeclaringClass().getSimpleName()
+                : ClassUtils.getUserClass(target).getSimpleName();
+        MethodStats named = statsByName.computeIfAbsent(storage + "#" + method.getName(),
+                name -> new MethodStats(storage, method.getName()));
+        return statsByMethod.computeIfAbsent(method, key -> named);
+    }
+
+    private void counter(StringBuilder out, String name, String help, Function<MethodStats, LongAdder> metric) {
+        header(out, name, "counter", help);
+        for (MethodStats stats : statsByName.values()) {
+            sample(out, name, stats, null).append(metric.apply(stats).sum()).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static StringBuilder sample(StringBuilder out, String name, MethodStats stats, String le) {
+        out.append(name).append("{storage=\"").append(stats.storage).append("\",method=\"").append(stats.method)
+                .append('"');
+        if (le != null) {
+            out.append(",le=\"").append(le).append('"');
+        }
+        return out.append("} ");
+    }
+
+    /**
+     * Запросы и строки, накопленные текущим вызовом хранилища в потоке.
+     */
+    private static final class Probe {
+        private long statements;
+        private long rows;
+    }
+
+    private static final class MethodStats {
+        private final String storage;
+        private final String method;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS_NANOS.length + 1];
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private MethodStats(String storage, String method) {
+            this.storage = storage;
+            this.method = method;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos, long statements, long rows, boolean failed) {
+            int bucket = 0;
+            while (bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            this.nanos.add(nanos);
+            this.statements.add(statements);
+            this.rows.add(rows);
+            if (failed) {
+                errors.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.storage.metrics.StorageMetricsAdvisor;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.support.AbstractPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Role;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import ru.yandex.practicum.filmorate.storage.metrics.StorageMetrics.StorageMetrics;
+
+import java.lang.reflect.Method;
+
+/**
+ * Подключает StorageMetrics к методам интерфейсов хранилищ (*Storage из пакета storage), которые реализует бин.
+ * Советник помечен как инфраструктурный, поэтому его подхватывает тот же автопрокси Spring, что и @Transactional:
+ * у транзакционных хранилищ метрики добавляются в уже существующий прокси.
+ */
+@Component
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+public class StorageMetricsAdvisor extends AbstractPointcutAdvisor {
+
+    private static final String STORAGE_PACKAGE = "ru.yandex.practicum.filmorate.storage.";
+    private static final String STORAGE_SUFFIX = "Storage";
+
+    private final StorageMetrics storageMetrics;
+    private final Pointcut pointcut = new StaticMethodMatcherPointcut() {
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            for (Class<?> type : ClassUtils.getAllInterfacesForClassAsSet(targetClass)) {
+                if (isStorage(type) && ClassUtils.hasMethod(type, method.getName(), method.getParameterTypes())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    public StorageMetricsAdvisor(StorageMetrics storageMetrics) {
+        this.storageMetrics = storageMetrics;
+        setOrder(LOWEST_PRECEDENCE);
+    }
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return storageMetrics;
+    }
+
+    private static boolean isStorage(Class<?> type) {
+        return type.getName().startsWith(STORAGE_PACKAGE) && type.getSimpleName().endsWith(STORAGE_SUFFIX);
+    }
+}
@@ -0,0 +1,166 @@
+package ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileCopyUtils;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Версионные миграции схемы из classpath:db/migration/V{номер}__{описание}.sql.
+ * Применённые версии и контрольные суммы скриптов хранятся в таблице schema_version: при запуске выполняются только
+ * новые скрипты по возрастанию номера, а изменение уже применённого скрипта останавливает приложение.
+ * Бины {@link JdbcTemplate} создаются после миграций (см. {@link SchemaMigratorDatabaseInitializerDetector}).
+ */
+@Component
+@Slf4j
+public class SchemaMigrator {
+
+    public static final String DEFAULT_LOCATION = "classpath:db/migration/";
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    private final DataSource dataSource;
+    private final String location;
+
+    @Autowired
+    public SchemaMigrator(DataSource dataSource) {
+        this(dataSource, DEFAULT_LOCATION);
+    }
+
+    public SchemaMigrator(DataSource dataSource, String location) {
+        this.dataSource = dataSource;
+        this.location = location;
+    }
+
+    /**
+     * Применяет недостающие миграции и возвращает их количество.
+     */
+    @PostConstruct
+    public int migrate() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                "version INTEGER PRIMARY KEY, " +
+                "description VARCHAR(200) NOT NULL, " +
+                "checksum BIGINT NOT NULL, " +
+                "installed_on TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL);");
+        Map<Integer, Long> applied = new HashMap<>();
+        jdbcTemplate.query("SELECT version, checksum FROM schema_version;",
+                (RowCallbackHandler) rs -> applied.put(rs.getInt("version"), rs.getLong("checksum")));
+
+        int count = 0;
+        for (Migration migration : findMigrations()) {
+            Long checksum = applied.get(migration.version);
+            if (checksum != null) {
+                if (checksum != migration.checksum) {
+                    throw new IllegalStateException("Миграция V" + migration.version +
+                            " изменена после применения.");
+                }
+                continue;
+            }
+            apply(migration);
+            count++;
+        }
+        log.info("Схема базы данных актуальна, применено новых миграций: {}.", count);
+        return count;
+    }
+
+    private void apply(Migration migration) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                ScriptUtils.executeSqlScript(connection,
+                        new EncodedResource(migration.resource, StandardCharsets.UTF_8));
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?);")) {
+                    ps.setInt(1, migration.version);
+                    ps.setString(2, migration.description);
+                    ps.setLong(3, migration.checksum);
+                    ps.executeUpdate();
+                }
+                connection.commit();
+            } catch (RuntimeException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось применить миграцию V" + migration.version + ".", e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+        log.info("Применена миграция V{}: {}.", migration.version, migration.description);
+    }
+
+    private List<Migration> findMigrations() {
+        List<Migration> migrations = new ArrayList<>();
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location + "V*__*.sql")) {
+                Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+                if (!matcher.matches()) {
+                    throw new IllegalStateException("Некорректное имя миграции: " + resource.getFilename() + ".");
+                }
+                migrations.add(new Migration(Integer.parseInt(matcher.group(1)),
+                        matcher.group(2).replace('_', ' '), checksum(resource), resource));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version == migrations.get(i - 1).version) {
+                throw new IllegalStateException("Две миграции с версией V" + migrations.get(i).version + ".");
+            }
+        }
+        return migrations;
+    }
+
+    private static long checksum(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            CRC32 crc = new CRC32();
+            crc.update(FileCopyUtils.copyToByteArray(in));
+            return crc.getValue();
+        }
+    }
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final long checksum;
+        private final Resource resource;
+
+        private Migration(int version, String description, long checksum, Resource resource) {
+            this.version = version;
+            this.description = description;
+            this.checksum = checksum;
+            this.resource = resource;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator;
+
+import org.springframework.boot.sql.init.dependency.AbstractBeansOfTypeDatabaseInitializerDetector;
+
+import java.util.Set;
+
+/**
+ * Сообщает Spring Boot, что {@link SchemaMigrator} инициализирует базу данных: бины, работающие с ней через JDBC,
+ * создаются только после применения миграций.
+ */
+public class SchemaMigratorDatabaseInitializerDetector extends AbstractBeansOfTypeDatabaseInitializerDetector {
+
+    @Override
+    protected Set<Class<?>> getDatabaseInitializerBeanTypes() {
+        return Set.of(SchemaMigrator.class);
+    }
+}
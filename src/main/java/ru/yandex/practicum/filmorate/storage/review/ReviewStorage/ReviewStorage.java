@@ -1,9 +1,8 @@
 package ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.Review;
 
-import java.util.List;
-
 public interface ReviewStorage {
 
     Review addReview(Review review);
@@ -12,7 +11,7 @@ public interface ReviewStorage {
 
     Review getReview(int id);
 
-    List<Review> getReviewOfFilm(Integer filmId, Integer count);
+    Page<Review> getReviewOfFilm(Integer filmId, String cursor, int count);
 
     boolean deleteReview(int id);
 
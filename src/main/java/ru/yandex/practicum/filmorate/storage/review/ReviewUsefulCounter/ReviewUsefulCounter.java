@@ -0,0 +1,165 @@
+package ru.yandex.practicum.filmorate.storage.review.ReviewUsefulCounter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Изменения рейтинга полезности отзывов, ещё не перенесённые в reviews.useful. Голос меняет счётчик отзыва в памяти
+ * ({@link LongAdder} распределяет конкурентные изменения по ячейкам), а не строку отзыва, поэтому голоса за популярный
+ * отзыв не ждут друг друга на блокировке одной строки. Накопленное раз в flush-interval-ms записывается одним
+ * batch update, до этого чтения добавляют его к значению из базы. Полностью записанные счётчики после записи
+ * удаляются, так что в памяти остаются только отзывы с недавними голосами.
+ * При штатной остановке всё накопленное записывается; при аварийной теряются изменения последнего интервала,
+ * сами голоса при этом остаются в review_votes.
+ */
+@Component
+@Slf4j
+public class ReviewUsefulCounter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    public ReviewUsefulCounter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Голос пишется в счётчик без блокировок. Если flush в это же время удалял счётчик как записанный, голос мог
+     * не попасть в его проверку: тогда он переносится в новый счётчик отзыва.
+     */
+    public void add(int reviewId, int delta) {
+        Counter counter = counters.computeIfAbsent(reviewId, id -> new Counter());
+        counter.total.add(delta);
+        if (counter.retiring) {
+            moveLateDeltas(reviewId, counter);
+        }
+    }
+
+    /**
+     * Возвращает изменение рейтинга отзыва, ещё не записанное в базу. Чтобы сложить его со значением из базы
+     * без двойного учёта, чтение базы и вызов должны идти внутри {@link #read(Supplier)}.
+     */
+    public int getPending(int reviewId) {
+        Counter counter = counters.get(reviewId);
+        return counter == null ? 0 : (int) (counter.total.sum() - counter.flushed);
+    }
+
+    /**
+     * Выполняет чтение reviews.useful вместе с getPending так, чтобы между ними не закончилась запись изменений:
+     * иначе уже записанная в базу, но ещё не отмеченная в счётчике часть была бы учтена дважды.
+     */
+    public <T> T read(Supplier<T> reader) {
+        flushLock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    public void removeReview(int reviewId) {
+        counters.remove(reviewId);
+    }
+
+    /**
+     * Переносит накопленные изменения в reviews.useful и возвращает число обновлённых отзывов.
+     * Записанная часть запоминается в счётчике, а не вычитается из него, поэтому голоса, пришедшие во время записи,
+     * попадут в следующую. Запись и отметка записанного идут под блокировкой, которую берут чтения рейтинга.
+     */
+    @Scheduled(initialDelayString = "${filmorate.reviews.useful.flush-interval-ms:1000}",
+            fixedDelayString = "${filmorate.reviews.useful.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized int flush() {
+        List<Object[]> updates = new ArrayList<>();
+        List<Map.Entry<Counter, Long>> flushed = new ArrayList<>();
+        List<Map.Entry<Integer, Counter>> checked = new ArrayList<>();
+        counters.forEach((reviewId, counter) -> {
+            long total = counter.total.sum();
+            if (total != counter.flushed) {
+                updates.add(new Object[]{total - counter.flushed, reviewId});
+                flushed.add(Map.entry(counter, total));
+            }
+            checked.add(Map.entry(reviewId, counter));
+        });
+        if (!updates.isEmpty()) {
+            flushLock.writeLock().lock();
+            try {
+                jdbcTemplate.batchUpdate("UPDATE reviews SET useful = useful + ? WHERE review_id = ?;", updates);
+                flushed.forEach(entry -> entry.getKey().flushed = entry.getValue());
+            } finally {
+                flushLock.writeLock().unlock();
+            }
+            log.debug("Рейтинг полезности обновлён у {} отзывов.", updates.size());
+        }
+        checked.forEach(entry -> removeIfFlushed(entry.getKey(), entry.getValue()));
+        return updates.size();
+    }
+
+    int size() {
+        return counters.size();
+    }
+
+    /**
+     * Удаляет счётчик, если всё накопленное в нём записано. Флаг ставится до проверки суммы, а голос читает его
+     * после своего изменения, поэтому голос, не попавший в проверку, увидит флаг и перенесёт себя сам.
+     */
+    private void removeIfFlushed(int reviewId, Counter counter) {
+        if (counter.total.sum() != counter.flushed) {
+            return;
+        }
+        counters.computeIfPresent(reviewId, (id, current) -> {
+            if (current != counter) {
+                return current;
+            }
+            counter.retiring = true;
+            long total = counter.total.sum();
+            if (total != counter.flushed) {
+                counter.retiring = false;
+                return current;
+            }
+            counter.moved = total;
+            return null;
+        });
+    }
+
+    /**
+     * Переносит в действующий счётчик отзыва изменения, пришедшие в удалённый счётчик после проверки при удалении.
+     * Переносы идут под блокировкой ключа, поэтому каждое изменение переносится один раз.
+     */
+    private void moveLateDeltas(int reviewId, Counter counter) {
+        counters.compute(reviewId, (id, current) -> {
+            if (current == counter) {
+                return current;
+            }
+            long late = counter.total.sum() - counter.moved;
+            if (late == 0) {
+                return current;
+            }
+            counter.moved += late;
+            Counter target = current == null ? new Counter() : current;
+            target.total.add(late);
+            return target;
+        });
+    }
+
+    private static final class Counter {
+        private final LongAdder total = new LongAdder();
+        private volatile long flushed;
+        private volatile boolean retiring;
+        private long moved;
+    }
+}
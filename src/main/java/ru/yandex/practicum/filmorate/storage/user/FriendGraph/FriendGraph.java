@@ -0,0 +1,218 @@
+package ru.yandex.practicum.filmorate.storage.user.FriendGraph;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.user.IntCounter.IntCounter;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя хранятся отсортированные массивы id тех, кого он добавил в друзья,
+ * и тех, кто добавил его. Массивы заменяются целиком при изменении, поэтому чтение идёт без блокировок.
+ * Общие друзья считаются слиянием двух отсортированных массивов, взаимность дружбы проверяется бинарным поиском.
+ * Возможные друзья ищутся обходом на два шага, на каждом из которых у пользователя читается не больше fanOut
+ * друзей: объём работы на запрос не превышает fanOut * fanOut рёбер даже для пользователей с тысячами друзей.
+ */
+@Component
+@Slf4j
+public class FriendGraph {
+
+    public static final int DEFAULT_FAN_OUT = 100;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int fanOut;
+    private final ConcurrentMap<Integer, int[]> friendsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, int[]> followersByUser = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public FriendGraph(JdbcTemplate jdbcTemplate,
+                       @Value("${filmorate.friends.suggestions.fan-out:" + DEFAULT_FAN_OUT + "}") int fanOut) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fanOut = fanOut;
+    }
+
+    @PostConstruct
+    public synchronized void reload() {
+        Map<Integer, List<Integer>> friends = new HashMap<>();
+        Map<Integer, List<Integer>> followers = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, friend_id FROM friends;", rs -> {
+            int userId = rs.getInt("user_id");
+            int friendId = rs.getInt("friend_id");
+            friends.computeIfAbsent(userId, id -> new ArrayList<>()).add(friendId);
+            followers.computeIfAbsent(friendId, id -> new ArrayList<>()).add(userId);
+        });
+        friendsByUser.clear();
+        followersByUser.clear();
+        friends.forEach((userId, friendIds) -> friendsByUser.put(userId, toSortedArray(friendIds)));
+        followers.forEach((userId, followerIds) -> followersByUser.put(userId, toSortedArray(followerIds)));
+        loaded = true;
+        log.info("Граф дружбы построен, пользователей с друзьями: {}.", friendsByUser.size());
+    }
+
+    /**
+     * Возвращает отсортированный массив id друзей пользователя. Массив нельзя изменять.
+     */
+    public int[] getFriendIds(int userId) {
+        ensureLoaded();
+        return friendsByUser.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * Возвращает отсортированный массив id пользователей, добавивших пользователя в друзья. Массив нельзя изменять.
+     */
+    public int[] getFollowerIds(int userId) {
+        ensureLoaded();
+        return followersByUser.getOrDefault(userId, EMPTY);
+    }
+
+    public boolean isFriend(int userId, int friendId) {
+        return Arrays.binarySearch(getFriendIds(userId), friendId) >= 0;
+    }
+
+    public List<Integer> getCommonFriendIds(int userId, int otherId) {
+        int[] friends = getFriendIds(userId);
+        int[] otherFriends = getFriendIds(otherId);
+        List<Integer> common = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < friends.length && j < otherFriends.length) {
+            if (friends[i] < otherFriends[j]) {
+                i++;
+            } else if (friends[i] > otherFriends[j]) {
+                j++;
+            } else {
+                common.add(friends[i]);
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Возвращает id друзей друзей пользователя, которых нет у него в друзьях, по убыванию числа общих друзей.
+     */
+    public List<Integer> suggestFriendIds(int userId, int count) {
+        int[] friends = getFriendIds(userId);
+        IntCounter mutual = new IntCounter(Math.min(friends.length, fanOut) * fanOut);
+        int step = stride(friends.length);
+        for (int i = 0; i < friends.length; i += step) {
+            int[] friendsOfFriend = getFriendIds(friends[i]);
+            int innerStep = stride(friendsOfFriend.length);
+            for (int j = 0; j < friendsOfFriend.length; j += innerStep) {
+                int candidateId = friendsOfFriend[j];
+                if (candidateId != userId && Arrays.binarySearch(friends, candidateId) < 0) {
+                    mutual.increment(candidateId);
+                }
+            }
+        }
+
+        long[] ranked = new long[mutual.size()];
+        int[] size = {0};
+        mutual.forEach((candidateId, mutualCount) ->
+                ranked[size[0]++] = ((long) -mutualCount << 32) | candidateId);
+        Arrays.sort(ranked);
+        List<Integer> candidateIds = new ArrayList<>(Math.min(count, ranked.length));
+        for (int i = 0; i < ranked.length && i < count; i++) {
+            candidateIds.add((int) ranked[i]);
+        }
+        return candidateIds;
+    }
+
+    public void addFriend(int userId, int friendId) {
+        if (!loaded) {
+            return;
+        }
+        friendsByUser.compute(userId, (id, friendIds) -> insert(friendIds, friendId));
+        followersByUser.compute(friendId, (id, followerIds) -> insert(followerIds, userId));
+    }
+
+    public void removeFriend(int userId, int friendId) {
+        if (!loaded) {
+            return;
+        }
+        friendsByUser.computeIfPresent(userId, (id, friendIds) -> remove(friendIds, friendId));
+        followersByUser.computeIfPresent(friendId, (id, followerIds) -> remove(followerIds, userId));
+    }
+
+    public void removeUser(int userId) {
+        if (!loaded) {
+            return;
+        }
+        int[] friendIds = friendsByUser.remove(userId);
+        if (friendIds != null) {
+            for (int friendId : friendIds) {
+                followersByUser.computeIfPresent(friendId, (id, followerIds) -> remove(followerIds, userId));
+            }
+        }
+        int[] followerIds = followersByUser.remove(userId);
+        if (followerIds != null) {
+            for (int followerId : followerIds) {
+                friendsByUser.computeIfPresent(followerId, (id, ids) -> remove(ids, userId));
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    /**
+     * Шаг, с которым читаются друзья, чтобы из длинного списка равномерно взять не больше fanOut id.
+     */
+    private int stride(int length) {
+        return length <= fanOut ? 1 : (length + fanOut - 1) / fanOut;
+    }
+
+    private static int[] toSortedArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static int[] insert(int[] values, int value) {
+        if (values == null) {
+            return new int[]{value};
+        }
+        int position = Arrays.binarySearch(values, value);
+        if (position >= 0) {
+            return values;
+        }
+        position = -position - 1;
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(values, position, result, position + 1, values.length - position);
+        return result;
+    }
+
+    private static int[] remove(int[] values, int value) {
+        int position = Arrays.binarySearch(values, value);
+        if (position < 0) {
+            return values;
+        }
+        if (values.length == 1) {
+            return null;
+        }
+        int[] result = new int[values.length - 1];
+        System.arraycopy(values, 0, result, 0, position);
+        System.arraycopy(values, position + 1, result, position, values.length - position - 1);
+        return result;
+    }
+}
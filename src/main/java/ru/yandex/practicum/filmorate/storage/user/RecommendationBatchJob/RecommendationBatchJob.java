@@ -0,0 +1,76 @@
+package ru.yandex.practicum.filmorate.storage.user.RecommendationBatchJob;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Периодический пересчёт рекомендаций для всех пользователей с лайками. Пользователи делятся между потоками
+ * {@link ForkJoinPool}, результат публикуется в {@link RecommendationEngine} одним снимком.
+ */
+@Component
+@Slf4j
+public class RecommendationBatchJob {
+
+    private static final int USERS_PER_TASK = 64;
+
+    private final RecommendationEngine recommendationEngine;
+    private final int parallelism;
+
+    public RecommendationBatchJob(RecommendationEngine recommendationEngine,
+                                  @Value("${filmorate.recommendations.batch.parallelism:0}") int parallelism) {
+        this.recommendationEngine = recommendationEngine;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.recommendations.batch.initial-delay-ms:60000}",
+            fixedDelayString = "${filmorate.recommendations.batch.interval-ms:600000}")
+    public void run() {
+        long startedAt = System.currentTimeMillis();
+        int[] userIds = recommendationEngine.getUserIds();
+        int[][] recommendations = new int[userIds.length][];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new BatchTask(userIds, recommendations, 0, userIds.length));
+        } finally {
+            pool.shutdown();
+        }
+        long durationMillis = System.currentTimeMillis() - startedAt;
+        recommendationEngine.publishSnapshot(userIds, recommendations, startedAt, durationMillis);
+        log.info("Рекомендации пересчитаны для {} пользователей за {} мс.", userIds.length, durationMillis);
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private final int[] userIds;
+        private final int[][] recommendations;
+        private final int from;
+        private final int to;
+
+        private BatchTask(int[] userIds, int[][] recommendations, int from, int to) {
+            this.userIds = userIds;
+            this.recommendations = recommendations;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= USERS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    List<Integer> filmIds = recommendationEngine.recommendOnline(userIds[i]);
+                    recommendations[i] = filmIds.stream().mapToInt(Integer::intValue).toArray();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(userIds, recommendations, from, middle),
+                    new BatchTask(userIds, recommendations, middle, to));
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package ru.yandex.practicum.filmorate.storage.user.RecommendationEngine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.RecommendationStats;
+import ru.yandex.practicum.filmorate.storage.user.IntCounter.IntCounter;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+
+/**
+ * Матрица лайков «пользователь - фильм» для рекомендаций. Лайки хранятся дважды в виде отсортированных массивов int:
+ * фильмы каждого пользователя и пользователи каждого фильма. Массивы не изменяются на месте, а заменяются целиком,
+ * поэтому чтение идёт без блокировок.
+ * Соседи пользователя ранжируются по коэффициенту Жаккара, фильм получает сумму сходств соседей, которые его лайкнули.
+ * Если есть снимок пакетного расчёта, рекомендации берутся из него; пользователи, которых нет в снимке или которые
+ * ставили лайки после расчёта, получают рекомендации, посчитанные на лету.
+ */
+@Component
+@Slf4j
+public class RecommendationEngine {
+
+    public static final int DEFAULT_NEIGHBOURS = 50;
+    public static final int DEFAULT_LIMIT = 20;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int neighbours;
+    private final int limit;
+    private final ConcurrentMap<Integer, int[]> filmsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, int[]> usersByFilm = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private final ConcurrentMap<Integer, Long> changedAt = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+
+    public RecommendationEngine(JdbcTemplate jdbcTemplate,
+                                @Value("${filmorate.recommendations.neighbours:" + DEFAULT_NEIGHBOURS + "}")
+                                int neighbours,
+                                @Value("${filmorate.recommendations.limit:" + DEFAULT_LIMIT + "}") int limit) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.neighbours = neighbours;
+        this.limit = limit;
+    }
+
+    @PostConstruct
+    public synchronized void reload() {
+        Map<Integer, List<Integer>> films = new HashMap<>();
+        Map<Integer, List<Integer>> users = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, film_id FROM likes;", rs -> {
+            int userId = rs.getInt("user_id");
+            int filmId = rs.getInt("film_id");
+            films.computeIfAbsent(userId, id -> new ArrayList<>()).add(filmId);
+            users.computeIfAbsent(filmId, id -> new ArrayList<>()).add(userId);
+        });
+        filmsByUser.clear();
+        usersByFilm.clear();
+        films.forEach((userId, filmIds) -> filmsByUser.put(userId, toSortedArray(filmIds)));
+        users.forEach((filmId, userIds) -> usersByFilm.put(filmId, toSortedArray(userIds)));
+        loaded = true;
+        log.info("Матрица лайков для рекомендаций построена, пользователей: {}, фильмов: {}.",
+                filmsByUser.size(), usersByFilm.size());
+    }
+
+    public List<Integer> recommend(int userId) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            int[] filmIds = current.recommendations.get(userId);
+            if (filmIds != null) {
+                List<Integer> recommendations = new ArrayList<>(filmIds.length);
+                for (int filmId : filmIds) {
+                    recommendations.add(filmId);
+                }
+                return recommendations;
+            }
+        }
+        return recommendOnline(userId);
+    }
+
+    public List<Integer> recommendOnline(int userId) {
+        ensureLoaded();
+        int[] liked = filmsByUser.getOrDefault(userId, EMPTY);
+        if (liked.length == 0) {
+            return List.of();
+        }
+        int candidates = 0;
+        for (int filmId : liked) {
+            candidates += usersByFilm.getOrDefault(filmId, EMPTY).length;
+        }
+        IntCounter overlaps = new IntCounter(candidates);
+        for (int filmId : liked) {
+            for (int otherId : usersByFilm.getOrDefault(filmId, EMPTY)) {
+                if (otherId != userId) {
+                    overlaps.increment(otherId);
+                }
+            }
+        }
+
+        PriorityQueue<Neighbour> nearest = new PriorityQueue<>(Neighbour.ORDER.reversed());
+        overlaps.forEach((otherId, overlap) -> {
+            int[] otherFilms = filmsByUser.getOrDefault(otherId, EMPTY);
+            double similarity = (double) overlap / (liked.length + otherFilms.length - overlap);
+            if (nearest.size() == neighbours) {
+                Neighbour worst = nearest.peek();
+                if (similarity < worst.similarity || (similarity == worst.similarity && otherId > worst.userId)) {
+                    return;
+                }
+                nearest.poll();
+            }
+            nearest.add(new Neighbour(otherId, similarity, otherFilms));
+        });
+
+        Map<Integer, Double> scores = new HashMap<>();
+        for (Neighbour neighbour : nearest) {
+            for (int filmId : neighbour.filmIds) {
+                if (Arrays.binarySearch(liked, filmId) < 0) {
+                    scores.merge(filmId, neighbour.similarity, Double::sum);
+                }
+            }
+        }
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        List<Integer> filmIds = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            filmIds.add(ranked.get(i).getKey());
+        }
+        return filmIds;
+    }
+
+    public int[] getUserIds() {
+        ensureLoaded();
+        return filmsByUser.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public void publishSnapshot(int[] userIds, int[][] recommendations, long computedAt, long durationMillis) {
+        ConcurrentMap<Integer, int[]> byUser = new ConcurrentHashMap<>(userIds.length * 2);
+        for (int i = 0; i < userIds.length; i++) {
+            byUser.put(userIds[i], recommendations[i]);
+        }
+        changedAt.entrySet().removeIf(change -> {
+            if (change.getValue() >= computedAt) {
+                byUser.remove(change.getKey());
+                return false;
+            }
+            return true;
+        });
+        snapshot = new Snapshot(byUser, computedAt, durationMillis);
+    }
+
+    public RecommendationStats getStats() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return new RecommendationStats(null, null, null, null);
+        }
+        return new RecommendationStats(current.computedAt, current.durationMillis, current.userCount,
+                System.currentTimeMillis() - current.computedAt);
+    }
+
+    public void addLike(int userId, int filmId) {
+        if (!loaded) {
+            return;
+        }
+        invalidate(userId);
+        filmsByUser.compute(userId, (id, filmIds) -> insert(filmIds, filmId));
+        usersByFilm.compute(filmId, (id, userIds) -> insert(userIds, userId));
+    }
+
+    /**
+     * Добавляет пачку лайков: массивы каждого пользователя и каждого фильма пересобираются один раз на пачку,
+     * а не на каждый лайк.
+     */
+    public void addLikes(Map<Integer, List<Integer>> filmIdsByUser) {
+        if (!loaded) {
+            return;
+        }
+        Map<Integer, List<Integer>> userIdsByFilm = new HashMap<>();
+        filmIdsByUser.forEach((userId, filmIds) -> {
+            invalidate(userId);
+            filmsByUser.compute(userId, (id, values) -> merge(values, filmIds));
+            for (Integer filmId : filmIds) {
+                userIdsByFilm.computeIfAbsent(filmId, id -> new ArrayList<>()).add(userId);
+            }
+        });
+        userIdsByFilm.forEach((filmId, userIds) -> usersByFilm.compute(filmId, (id, values) -> merge(values, userIds)));
+    }
+
+    public void removeLike(int userId, int filmId) {
+        if (!loaded) {
+            return;
+        }
+        invalidate(userId);
+        filmsByUser.computeIfPresent(userId, (id, filmIds) -> remove(filmIds, filmId));
+        usersByFilm.computeIfPresent(filmId, (id, userIds) -> remove(userIds, userId));
+    }
+
+    public void removeUser(int userId) {
+        if (!loaded) {
+            return;
+        }
+        invalidate(userId);
+        int[] filmIds = filmsByUser.remove(userId);
+        if (filmIds != null) {
+            for (int filmId : filmIds) {
+                usersByFilm.computeIfPresent(filmId, (id, userIds) -> remove(userIds, userId));
+            }
+        }
+    }
+
+    public void removeFilm(int filmId) {
+        if (!loaded) {
+            return;
+        }
+        int[] userIds = usersByFilm.remove(filmId);
+        if (userIds != null) {
+            for (int userId : userIds) {
+                filmsByUser.computeIfPresent(userId, (id, filmIds) -> remove(filmIds, filmId));
+            }
+        }
+    }
+
+    private void invalidate(int userId) {
+        changedAt.put(userId, System.currentTimeMillis());
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.recommendations.remove(userId);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private static int[] toSortedArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static int[] insert(int[] values, int value) {
+        if (values == null) {
+            return new int[]{value};
+        }
+        int position = Arrays.binarySearch(values, value);
+        if (position >= 0) {
+            return values;
+        }
+        position = -position - 1;
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(values, position, result, position + 1, values.length - position);
+        return result;
+    }
+
+    private static int[] merge(int[] values, List<Integer> added) {
+        return IntStream.concat(Arrays.stream(values == null ? EMPTY : values),
+                added.stream().mapToInt(Integer::intValue)).sorted().distinct().toArray();
+    }
+
+    private static int[] remove(int[] values, int value) {
+        int position = Arrays.binarySearch(values, value);
+        if (position < 0) {
+            return values;
+        }
+        if (values.length == 1) {
+            return null;
+        }
+        int[] result = new int[values.length - 1];
+        System.arraycopy(values, 0, result, 0, position);
+        System.arraycopy(values, position + 1, result, position, values.length - position - 1);
+        return result;
+    }
+
+    private static final class Snapshot {
+        private final ConcurrentMap<Integer, int[]> recommendations;
+        private final long computedAt;
+        private final long durationMillis;
+        private final int userCount;
+
+        private Snapshot(ConcurrentMap<Integer, int[]> recommendations, long computedAt, long durationMillis) {
+            this.recommendations = recommendations;
+            this.computedAt = computedAt;
+            this.durationMillis = durationMillis;
+            this.userCount = recommendations.size();
+        }
+    }
+
+    private static final class Neighbour {
+        private static final Comparator<Neighbour> ORDER = Comparator.comparingDouble((Neighbour n) -> -n.similarity)
+                .thenComparingInt(n -> n.userId);
+
+        private final int userId;
+        private final double similarity;
+        private final int[] filmIds;
+
+        private Neighbour(int userId, double similarity, int[] filmIds) {
+            this.userId = userId;
+            this.similarity = similarity;
+            this.filmIds = filmIds;
+        }
+    }
+}
@@ -4,15 +4,23 @@ import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
     User addUser(User user);
 
+    Map<Integer, String> addUsers(List<User> users);
+
     User updateUser(User user);
 
     List<User> getUsers();
 
+    List<User> getUsers(int afterId, int limit);
+
+    void exportUsers(Consumer<User> consumer);
+
     User getUser(int id);
 
     User addFriend(int id, int friendId);
@@ -23,6 +31,8 @@ public interface UserStorage {
 
     List<User> getFriendsOfUser(int id);
 
+    List<User> getFriendSuggestions(int id, int count);
+
     boolean deleteUserById(int id);
 
     List<Film> getRecommendationsFilmsByUser(int id);
@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS film_co_likes
+(
+film_id INTEGER REFERENCES films(film_id) ON DELETE CASCADE,
+other_film_id INTEGER REFERENCES films(film_id) ON DELETE CASCADE,
+co_likes INTEGER NOT NULL,
+PRIMARY KEY (film_id, other_film_id)
+);
+
+CREATE INDEX IF NOT EXISTS film_co_likes_top_idx ON film_co_likes (film_id, co_likes DESC, other_film_id);
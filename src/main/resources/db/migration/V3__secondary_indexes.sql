@@ -0,0 +1,26 @@
+CREATE INDEX IF NOT EXISTS likes_user_idx ON likes (user_id, film_id);
+
+CREATE INDEX IF NOT EXISTS friends_friend_idx ON friends (friend_id);
+
+CREATE INDEX IF NOT EXISTS feed_user_idx ON feed (user_id, event_id);
+
+CREATE INDEX IF NOT EXISTS reviews_film_useful_idx ON reviews (film_id, useful DESC);
+
+CREATE TABLE film_director_distinct AS
+SELECT DISTINCT film_id, director_id FROM film_director
+WHERE film_id IS NOT NULL AND director_id IS NOT NULL;
+
+DELETE FROM film_director;
+
+INSERT INTO film_director (film_id, director_id)
+SELECT film_id, director_id FROM film_director_distinct;
+
+DROP TABLE film_director_distinct;
+
+ALTER TABLE film_director ALTER COLUMN film_id SET NOT NULL;
+
+ALTER TABLE film_director ALTER COLUMN director_id SET NOT NULL;
+
+ALTER TABLE film_director ADD CONSTRAINT film_director_pk PRIMARY KEY (film_id, director_id);
+
+CREATE INDEX IF NOT EXISTS film_director_director_idx ON film_director (director_id, film_id);
@@ -0,0 +1,3 @@
+DROP INDEX IF EXISTS feed_user_idx;
+
+CREATE INDEX feed_user_idx ON feed (user_id, event_id DESC);
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS timeline
+(
+    user_id  INTEGER NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
+    event_id INTEGER NOT NULL REFERENCES feed (event_id) ON DELETE CASCADE
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS timeline_user_idx ON timeline (user_id, event_id DESC);
+
+INSERT INTO timeline (user_id, event_id)
+SELECT user_id, event_id
+FROM (SELECT fr.user_id,
+             f.event_id,
+             ROW_NUMBER() OVER (PARTITION BY fr.user_id ORDER BY f.event_id DESC) AS position
+      FROM friends AS fr
+               JOIN feed AS f ON f.user_id = fr.friend_id) AS recent
+WHERE position <= 1000;
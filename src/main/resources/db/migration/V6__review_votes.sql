@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS review_votes
+(
+    review_id INTEGER  NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE,
+    user_id   INTEGER  NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
+    vote      SMALLINT NOT NULL,
+    CONSTRAINT review_votes_pk PRIMARY KEY (review_id, user_id)
+);
+
+CREATE INDEX IF NOT EXISTS review_votes_user_idx ON review_votes (user_id);
@@ -0,0 +1,5 @@
+DROP INDEX IF EXISTS reviews_film_useful_idx;
+
+CREATE INDEX reviews_film_useful_idx ON reviews (film_id, useful DESC, review_id);
+
+CREATE INDEX IF NOT EXISTS reviews_useful_idx ON reviews (useful DESC, review_id);
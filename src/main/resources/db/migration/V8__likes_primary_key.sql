@@ -0,0 +1,16 @@
+CREATE TABLE likes_distinct AS
+SELECT DISTINCT film_id, user_id FROM likes
+WHERE film_id IS NOT NULL AND user_id IS NOT NULL;
+
+DELETE FROM likes;
+
+INSERT INTO likes (film_id, user_id)
+SELECT film_id, user_id FROM likes_distinct;
+
+DROP TABLE likes_distinct;
+
+ALTER TABLE likes ALTER COLUMN film_id SET NOT NULL;
+
+ALTER TABLE likes ALTER COLUMN user_id SET NOT NULL;
+
+ALTER TABLE likes ADD CONSTRAINT likes_pk PRIMARY KEY (film_id, user_id);
@@ -3,14 +3,17 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 public class DirectorDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
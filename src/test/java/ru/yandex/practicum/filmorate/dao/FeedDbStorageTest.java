@@ -0,0 +1,166 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
+import ru.yandex.practicum.filmorate.storage.feed.FeedTimeline.FeedTimeline;
+import ru.yandex.practicum.filmorate.storage.feed.FeedWriter.FeedWriter;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@Import(SchemaMigrator.class)
+class FeedDbStorageTest {
+
+    final JdbcTemplate jdbcTemplate;
+    FeedDbStorage feedDbStorage;
+    UserDbStorage userDbStorage;
+    User testedUser;
+
+    @Autowired
+    public FeedDbStorageTest(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @BeforeEach
+    public void createUser() {
+        feedDbStorage = new FeedDbStorage(jdbcTemplate);
+        testedUser = User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build();
+        userDbStorage = new UserDbStorage(jdbcTemplate);
+        userDbStorage.addUser(testedUser);
+    }
+
+    @Test
+    public void checkFeedIsReadByPagesFromNewestEvent() {
+        List<Integer> eventIds = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            Feed feed = new Feed(0, (long) i, testedUser.getId(), "LIKE", "ADD", i);
+            feedDbStorage.createFeed(feed);
+            eventIds.add(0, feed.getEventId());
+        }
+
+        List<Feed> firstPage = feedDbStorage.getFeedByUserId(testedUser.getId(), null, 2);
+        assertEquals(eventIds.subList(0, 2), getEventIds(firstPage));
+        assertEquals(List.of(5, 4), getEntityIds(firstPage));
+
+        List<Feed> secondPage = feedDbStorage.getFeedByUserId(testedUser.getId(), eventIds.get(1), 2);
+        assertEquals(eventIds.subList(2, 4), getEventIds(secondPage));
+
+        List<Feed> lastPage = feedDbStorage.getFeedByUserId(testedUser.getId(), eventIds.get(3), 2);
+        assertEquals(eventIds.subList(4, 5), getEventIds(lastPage));
+        assertTrue(feedDbStorage.getFeedByUserId(testedUser.getId(), eventIds.get(4), 2).isEmpty());
+    }
+
+    @Test
+    public void checkFeedOfUnknownUserIsNotFound() {
+        assertTrue(feedDbStorage.getFeedByUserId(testedUser.getId(), null, 10).isEmpty());
+        assertThrows(ObjectNotFoundException.class, () -> feedDbStorage.getFeedByUserId(9999, null, 10));
+    }
+
+    @Test
+    public void checkFeedPageIsReadInIndexOrder() {
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT* FROM feed WHERE user_id = 1 AND event_id < 100 " +
+                "ORDER BY user_id, event_id DESC LIMIT 10;", String.class);
+
+        assertTrue(plan.contains("FEED_USER_IDX"), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    public void checkTimelineMergesFanOutAndCelebrityEvents() {
+        createTimelineStorages(FeedTimeline.DEFAULT_CAPACITY, 1);
+        User friend = createUser("friend");
+        User celebrity = createUser("celebrity");
+        User stranger = createUser("stranger");
+        userDbStorage.addFriend(testedUser.getId(), friend.getId());
+        userDbStorage.addFriend(testedUser.getId(), celebrity.getId());
+        userDbStorage.addFriend(stranger.getId(), celebrity.getId());
+        feedDbStorage.createFeed(new Feed(0, 1L, friend.getId(), "LIKE", "ADD", 1));
+        feedDbStorage.createFeed(new Feed(0, 2L, celebrity.getId(), "LIKE", "ADD", 2));
+        feedDbStorage.createFeed(new Feed(0, 3L, stranger.getId(), "LIKE", "ADD", 3));
+        feedDbStorage.createFeed(new Feed(0, 4L, friend.getId(), "REVIEW", "ADD", 4));
+
+        assertEquals(0, countTimeline(celebrity.getId()));
+        List<Feed> timeline = feedDbStorage.getTimeline(testedUser.getId(), null, 10);
+        assertEquals(List.of(4, 2, 1), getEntityIds(timeline));
+        List<Feed> firstPage = feedDbStorage.getTimeline(testedUser.getId(), null, 2);
+        assertEquals(List.of(4, 2), getEntityIds(firstPage));
+        assertEquals(List.of(1), getEntityIds(feedDbStorage.getTimeline(testedUser.getId(),
+                firstPage.get(1).getEventId(), 2)));
+        assertThrows(ObjectNotFoundException.class, () -> feedDbStorage.getTimeline(9999, null, 10));
+    }
+
+    @Test
+    public void checkTimelineIsCappedAndClearedAfterUnfriend() {
+        createTimelineStorages(3, FeedTimeline.DEFAULT_CELEBRITY_FOLLOWERS);
+        User friend = createUser("friend");
+        User otherFriend = createUser("other");
+        userDbStorage.addFriend(testedUser.getId(), friend.getId());
+        userDbStorage.addFriend(testedUser.getId(), otherFriend.getId());
+        for (int i = 1; i <= 5; i++) {
+            feedDbStorage.createFeed(new Feed(0, (long) i, friend.getId(), "LIKE", "ADD", i));
+        }
+        feedDbStorage.createFeed(new Feed(0, 6L, otherFriend.getId(), "LIKE", "ADD", 6));
+
+        assertEquals(3, countTimeline(testedUser.getId()));
+        assertEquals(List.of(6, 5, 4), getEntityIds(feedDbStorage.getTimeline(testedUser.getId(), null, 10)));
+
+        userDbStorage.deleteFriend(testedUser.getId(), friend.getId());
+        assertEquals(List.of(6), getEntityIds(feedDbStorage.getTimeline(testedUser.getId(), null, 10)));
+    }
+
+    private void createTimelineStorages(int capacity, int celebrityFollowers) {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FeedTimeline feedTimeline = new FeedTimeline(jdbcTemplate, components.friendGraph, capacity,
+                celebrityFollowers);
+        FeedSubscriptions feedSubscriptions = new FeedSubscriptions(FeedSubscriptions.DEFAULT_BUFFER_SIZE,
+                FeedSubscriptions.DEFAULT_DISPATCH_THREADS);
+        feedDbStorage = new FeedDbStorage(jdbcTemplate, new FeedWriter(jdbcTemplate, feedTimeline, feedSubscriptions,
+                FeedWriter.DEFAULT_CAPACITY, FeedWriter.DEFAULT_BATCH_SIZE, FeedWriter.DEFAULT_FLUSH_INTERVAL_MILLIS),
+                feedTimeline, feedSubscriptions, true);
+        userDbStorage = new UserDbStorage(jdbcTemplate, components.filmStorage(), components.filmCache,
+                components.filmLeaderboard, components.filmSuggestions, components.recommendationEngine,
+                components.filmSimilarity, components.friendGraph, feedDbStorage);
+    }
+
+    private User createUser(String login) {
+        User user = User.builder()
+                .name(login)
+                .login(login)
+                .email(login + "@yandex.ru")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build();
+        userDbStorage.addUser(user);
+        return user;
+    }
+
+    private int countTimeline(int userId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM timeline WHERE user_id = ?;", Integer.class, userId);
+    }
+
+    private List<Integer> getEntityIds(List<Feed> feeds) {
+        return feeds.stream().map(Feed::getEntityId).collect(Collectors.toList());
+    }
+
+    private List<Integer> getEventIds(List<Feed> feeds) {
+        return feeds.stream().map(Feed::getEventId).collect(Collectors.toList());
+    }
+}
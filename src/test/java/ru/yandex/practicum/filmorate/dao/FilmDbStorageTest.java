@@ -3,17 +3,35 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.StatementCallback;
+import ru.yandex.practicum.filmorate.enums.SuggestionTypes;
+import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
 import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarity.FilmSimilarity;
+import ru.yandex.practicum.filmorate.storage.film.FilmSuggestions.FilmSuggestions;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
+
+import javax.sql.DataSource;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 class FilmDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
@@ -241,6 +259,115 @@ class FilmDbStorageTest {
         assertEquals(1, filmDbStorage.getTopFilms(2, 3, 1998).size());
     }
 
+    @Test
+    public void checkTopFilmsUseMaintainedLikeCount() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        Film comedy = filmDbStorage.addFilm(Film.builder()
+                .name("Маска")
+                .description("Комедия")
+                .duration(126)
+                .releaseDate(LocalDate.of(1994, 7, 29))
+                .mpa(Rating.builder().id(2).build())
+                .genres(List.of(Genre.builder().id(1).build()))
+                .build());
+        Film drama = filmDbStorage.addFilm(Film.builder()
+                .name("Титаник")
+                .description("Фильм - катастрофа")
+                .duration(194)
+                .releaseDate(LocalDate.of(1997, 12, 19))
+                .mpa(Rating.builder().id(3).build())
+                .genres(List.of(Genre.builder().id(2).build()))
+                .build());
+        testedUser = userDbStorage.addUser(User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build());
+        User anotherUser = userDbStorage.addUser(User.builder()
+                .name("Сергей")
+                .login("Seryoga")
+                .email("voyu.na_lunu@yandex.ru")
+                .birthday(LocalDate.of(1997, 6, 13))
+                .build());
+
+        filmDbStorage.like(drama.getId(), testedUser.getId());
+        filmDbStorage.like(drama.getId(), testedUser.getId());
+        filmDbStorage.like(comedy.getId(), testedUser.getId());
+        filmDbStorage.like(comedy.getId(), anotherUser.getId());
+        SharedComponents.afterCommit();
+
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, drama.getId()));
+        assertEquals(List.of(comedy.getId(), drama.getId()), getIds(filmDbStorage.getTopFilms(10, 0, 0)));
+        assertEquals(List.of(drama.getId()), getIds(filmDbStorage.getTopFilms(10, 2, 0)));
+        assertEquals(List.of(comedy.getId()), getIds(filmDbStorage.getTopFilms(10, 0, 1994)));
+        assertEquals(List.of(comedy.getId()), getIds(filmDbStorage.getTopFilms(1, 0, 0)));
+        assertTrue(filmDbStorage.getTopFilms(10, 1, 1997).isEmpty());
+
+        filmDbStorage.getFilm(comedy.getId());
+        filmDbStorage.deleteLike(comedy.getId(), testedUser.getId());
+        userDbStorage.deleteUserById(anotherUser.getId());
+        assertEquals(List.of(comedy.getId(), drama.getId()), getIds(filmDbStorage.getTopFilms(10, 0, 0)));
+        assertNotNull(components.filmCache.getIfPresent(comedy.getId()));
+        SharedComponents.afterCommit();
+
+        assertNull(components.filmCache.getIfPresent(comedy.getId()));
+        assertEquals(List.of(drama.getId(), comedy.getId()), getIds(filmDbStorage.getTopFilms(10, 0, 0)));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, comedy.getId()));
+    }
+
+    private List<Integer> getIds(List<Film> films) {
+        List<Integer> ids = new ArrayList<>();
+        for (Film film : films) {
+            ids.add(film.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void checkGetFilmsPageAfterId() {
+        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(filmDbStorage.addFilm(Film.builder()
+                    .name("Фильм " + i)
+                    .description("Описание фильма " + i)
+                    .duration(100)
+                    .releaseDate(LocalDate.of(2000, 1, 1))
+                    .mpa(Rating.builder().id(1).build())
+                    .build()).getId());
+        }
+
+        assertEquals(ids.subList(0, 2), getIds(filmDbStorage.getFilms(0, 2)));
+        assertEquals(ids.subList(2, 4), getIds(filmDbStorage.getFilms(ids.get(1), 2)));
+        assertEquals(ids.subList(4, 5), getIds(filmDbStorage.getFilms(ids.get(3), 2)));
+        assertTrue(filmDbStorage.getFilms(ids.get(4), 2).isEmpty());
+    }
+
+    @Test
+    public void checkExportFilmsStreamsHydratedFilmsInIdOrder() {
+        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        testedDirector = Director.builder()
+                .name("Квентин Тарантино")
+                .build();
+        new DirectorDbStorage(jdbcTemplate).addDirector(testedDirector);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i)).getId());
+        }
+        List<Film> exported = new ArrayList<>();
+
+        filmDbStorage.exportFilms(exported::add);
+
+        assertEquals(ids, getIds(exported));
+        assertEquals(2, exported.get(2).getGenres().size());
+        assertEquals("Квентин Тарантино", exported.get(2).getDirectors().get(0).getName());
+    }
+
     @Test
     public void checkDeleteFilm() {
         FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
@@ -357,9 +484,20 @@ class FilmDbStorageTest {
         filmDbStorage.like(testedFilm.getId(), anotherUser.getId());
         filmDbStorage.like(anotherFilm.getId(), testedUser.getId());
         filmDbStorage.like(anotherFilm.getId(), anotherUser.getId());
+        User thirdUser = userDbStorage.addUser(User.builder()
+                .name("Анна")
+                .login("Anna")
+                .email("anna@yandex.ru")
+                .birthday(LocalDate.of(1995, 1, 1))
+                .build());
+        filmDbStorage.like(anotherFilm.getId(), thirdUser.getId());
 
         assertEquals(2, filmDbStorage.getCommonFilms(testedUser.getId(), anotherUser.getId()).size());
         assertNotNull(filmDbStorage.getCommonFilms(testedUser.getId(), anotherUser.getId()));
+        assertEquals(List.of(anotherFilm.getId(), testedFilm.getId()),
+                getIds(filmDbStorage.getCommonFilms(testedUser.getId(), anotherUser.getId())));
+        assertEquals(List.of(anotherFilm.getId()),
+                getIds(filmDbStorage.getCommonFilms(testedUser.getId(), thirdUser.getId())));
     }
 
     @Test
@@ -445,4 +583,566 @@ class FilmDbStorageTest {
                 .usingRecursiveComparison()
                 .isEqualTo(filmSearch.get(0));
     }
+
+    @Test
+    public void checkSearchIndexMatchesLikeScan() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        DirectorDbStorage directorDbStorage = components.directorStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        List<Director> directors = List.of(
+                directorDbStorage.addDirector(Director.builder().name("Квентин Тарантино").build()),
+                directorDbStorage.addDirector(Director.builder().name("Гай Ричи").build()),
+                directorDbStorage.addDirector(Director.builder().name("Christopher Nolan").build()));
+        List<String> titles = List.of("Бешеные псы", "Криминальное чтиво", "Большой куш", "Interstellar",
+                "Карты, деньги, два ствола");
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            films.add(filmDbStorage.addFilm(Film.builder()
+                    .name(titles.get(i % titles.size()) + " " + i)
+                    .description("Описание фильма " + i)
+                    .duration(100)
+                    .releaseDate(LocalDate.of(1990 + i % 30, 1, 1))
+                    .mpa(Rating.builder().id(1).build())
+                    .directors(i % 4 == 3 ? List.of() : List.of(directors.get(i % 3)))
+                    .build()));
+        }
+        testedUser = userDbStorage.addUser(User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build());
+        filmDbStorage.like(films.get(100).getId(), testedUser.getId());
+        directors.get(1).setName("Гай Стюарт Ричи");
+        directorDbStorage.updateDirector(directors.get(1));
+        films.get(7).setName("Тайна СТВОЛА");
+        filmDbStorage.updateFilm(films.get(7));
+
+        List<String> queries = List.of("бешеные", "ЧТИВО", "тарант", "стюарт", "ствол", "ри", "к", "", "nolan",
+                "такого нет");
+        for (String by : List.of("title", "director", "title,director")) {
+            for (String query : queries) {
+                List<Integer> expected = searchByLikeScan(query, by);
+
+                assertEquals(new HashSet<>(expected),
+                        new HashSet<>(getIds(filmDbStorage.getFilmsByNameOrNameAndDirector(query, by))),
+                        by + ": " + query);
+            }
+        }
+        assertEquals(films.get(100).getId(), filmDbStorage.getFilmsByNameOrNameAndDirector("шеные", "title")
+                .get(0).getId());
+    }
+
+    private List<Integer> searchByLikeScan(String query, String by) {
+        String sql = "SELECT f.film_id FROM films AS f " +
+                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
+                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id ";
+        if (by.equals("title")) {
+            return jdbcTemplate.queryForList(sql + "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                    "GROUP BY f.film_id;", Integer.class, query);
+        } else if (by.equals("director")) {
+            return jdbcTemplate.queryForList(sql + "WHERE LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                    "GROUP BY f.film_id;", Integer.class, query);
+        }
+        return jdbcTemplate.queryForList(sql + "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                "OR LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) GROUP BY f.film_id;", Integer.class, query, query);
+    }
+
+    @Test
+    public void checkSuggestionsAreRankedByLikes() {
+        SharedComponents components = new SharedComponents(jdbcTemplate,
+                new FilmCache(FilmCache.DEFAULT_CAPACITY), 2);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        DirectorDbStorage directorDbStorage = components.directorStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = directorDbStorage.addDirector(Director.builder().name("Квентин Тарантино").build());
+        Film dogs = filmDbStorage.addFilm(createFilmWithGenresAndDirector(1));
+        dogs.setName("Бешеные псы");
+        filmDbStorage.updateFilm(dogs);
+        Film pulpFiction = filmDbStorage.addFilm(createFilmWithGenresAndDirector(2));
+        pulpFiction.setName("Криминальное чтиво");
+        filmDbStorage.updateFilm(pulpFiction);
+        assertTrue(filmDbStorage.getSuggestions("кр", 10).stream()
+                .allMatch(suggestion -> suggestion.getId() == pulpFiction.getId()));
+        Film kill = filmDbStorage.addFilm(createFilmWithGenresAndDirector(3));
+        kill.setName("Кровавый мясник");
+        filmDbStorage.updateFilm(kill);
+        testedUser = userDbStorage.addUser(User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build());
+        filmDbStorage.like(kill.getId(), testedUser.getId());
+        SharedComponents.afterCommit();
+
+        List<Suggestion> suggestions = filmDbStorage.getSuggestions("К", 10);
+        assertEquals(2, suggestions.size());
+        assertEquals(new Suggestion(SuggestionTypes.DIRECTOR, testedDirector.getId(), "Квентин Тарантино"),
+                suggestions.get(0));
+        assertEquals(new Suggestion(SuggestionTypes.FILM, kill.getId(), "Кровавый мясник"), suggestions.get(1));
+        assertEquals(List.of(new Suggestion(SuggestionTypes.FILM, dogs.getId(), "Бешеные псы")),
+                filmDbStorage.getSuggestions("ПСЫ", 1));
+
+        userDbStorage.deleteUserById(testedUser.getId());
+        SharedComponents.afterCommit();
+        testedDirector.setName("Тарантино");
+        directorDbStorage.updateDirector(testedDirector);
+
+        assertEquals(new Suggestion(SuggestionTypes.FILM, pulpFiction.getId(), "Криминальное чтиво"),
+                filmDbStorage.getSuggestions("к", 10).get(0));
+        assertEquals(List.of(new Suggestion(SuggestionTypes.DIRECTOR, testedDirector.getId(), "Тарантино")),
+                filmDbStorage.getSuggestions("тар", 10));
+    }
+
+    @Test
+    public void checkSuggestionsAfterLikesMatchRebuiltTree() {
+        SharedComponents components = new SharedComponents(jdbcTemplate,
+                new FilmCache(FilmCache.DEFAULT_CAPACITY), 2);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Мирон").build());
+        String[] words = {"мы", "мир", "мираж", "м"};
+        List<Integer> filmIds = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Film film = filmDbStorage.addFilm(createFilmWithGenresAndDirector(i + 1));
+            film.setName(words[i % 4] + " " + words[i / 4] + " " + words[i % 3]);
+            filmDbStorage.updateFilm(film);
+            filmIds.add(film.getId());
+        }
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            userIds.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        filmDbStorage.getSuggestions("м", 1);
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) {
+            int filmId = filmIds.get(random.nextInt(filmIds.size()));
+            int userId = userIds.get(random.nextInt(userIds.size()));
+            if (random.nextInt(3) > 0) {
+                filmDbStorage.like(filmId, userId);
+            } else {
+                filmDbStorage.deleteLike(filmId, userId);
+            }
+            SharedComponents.afterCommit();
+        }
+
+        FilmSuggestions rebuilt = new FilmSuggestions(jdbcTemplate, 2);
+        rebuilt.reload();
+        for (String prefix : List.of("м", "мы", "мы ", "мы м", "мир", "мира", "мираж м", "м м", "м мы", "мирон")) {
+            assertEquals(rebuilt.suggest(prefix, 2), filmDbStorage.getSuggestions(prefix, 2), prefix);
+        }
+    }
+
+    @Test
+    public void checkSimilarFilmsFollowCoLikes() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        Film first = filmDbStorage.addFilm(createFilmWithGenresAndDirector(1));
+        Film second = filmDbStorage.addFilm(createFilmWithGenresAndDirector(2));
+        Film third = filmDbStorage.addFilm(createFilmWithGenresAndDirector(3));
+        testedUser = userDbStorage.addUser(User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build());
+        User anotherUser = userDbStorage.addUser(User.builder()
+                .name("Сергей")
+                .login("Seryoga")
+                .email("voyu.na_lunu@yandex.ru")
+                .birthday(LocalDate.of(1997, 6, 13))
+                .build());
+        filmDbStorage.like(third.getId(), testedUser.getId());
+        filmDbStorage.like(second.getId(), testedUser.getId());
+        filmDbStorage.like(first.getId(), testedUser.getId());
+        filmDbStorage.like(second.getId(), anotherUser.getId());
+        filmDbStorage.like(first.getId(), anotherUser.getId());
+        components.commit();
+
+        assertEquals(List.of(second.getId(), third.getId()), getIds(filmDbStorage.getSimilarFilms(first.getId(), 10)));
+        assertEquals(List.of(first.getId()), getIds(filmDbStorage.getSimilarFilms(second.getId(), 1)));
+
+        jdbcTemplate.update("DELETE FROM film_co_likes;");
+        FilmSimilarity restored = new FilmSimilarity(jdbcTemplate, FilmSimilarity.DEFAULT_TOP_SIZE,
+                FilmSimilarity.DEFAULT_CACHE_CAPACITY);
+        restored.reload();
+        assertEquals(List.of(second.getId(), third.getId()), restored.getSimilarFilmIds(first.getId(), 10));
+
+        filmDbStorage.deleteLike(second.getId(), anotherUser.getId());
+        components.commit();
+        assertEquals(List.of(first.getId(), third.getId()),
+                getIds(filmDbStorage.getSimilarFilms(second.getId(), 10)));
+        assertEquals(List.of(second.getId(), third.getId()), getIds(filmDbStorage.getSimilarFilms(first.getId(), 10)));
+
+        userDbStorage.deleteUserById(testedUser.getId());
+        assertEquals(List.of(second.getId(), third.getId()), getIds(filmDbStorage.getSimilarFilms(first.getId(), 10)));
+        components.commit();
+        assertTrue(filmDbStorage.getSimilarFilms(first.getId(), 10).isEmpty());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_co_likes;", Integer.class));
+    }
+
+    @Test
+    public void checkSimilarFilmsKeepExactBoundedTops() {
+        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        FilmSimilarity filmSimilarity = new FilmSimilarity(jdbcTemplate, 2, FilmSimilarity.DEFAULT_CACHE_CAPACITY);
+        testedDirector = new DirectorDbStorage(jdbcTemplate).addDirector(Director.builder().name("Режиссёр").build());
+        List<Integer> filmIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            filmIds.add(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i + 1)).getId());
+        }
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            userIds.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        Random random = new Random(11);
+        for (int i = 0; i < 300; i++) {
+            int filmId = filmIds.get(random.nextInt(filmIds.size()));
+            int userId = userIds.get(random.nextInt(userIds.size()));
+            if (random.nextInt(3) > 0) {
+                if (jdbcTemplate.update("MERGE INTO likes (film_id, user_id) KEY (film_id, user_id) " +
+                        "VALUES (?, ?);", filmId, userId) > 0) {
+                    filmSimilarity.addLike(userId, filmId);
+                }
+            } else if (jdbcTemplate.update("DELETE FROM likes WHERE film_id = ? AND user_id = ?;", filmId,
+                    userId) > 0) {
+                filmSimilarity.removeLike(userId, filmId);
+            }
+            if (random.nextInt(5) == 0) {
+                SharedComponents.afterCommit();
+                filmSimilarity.flush();
+            }
+        }
+        SharedComponents.afterCommit();
+        filmSimilarity.flush();
+
+        assertEquals(jdbcTemplate.queryForList("SELECT film_id, other_film_id, co_likes FROM (" +
+                        "SELECT film_id, other_film_id, co_likes, ROW_NUMBER() OVER (PARTITION BY film_id " +
+                        "ORDER BY co_likes DESC, other_film_id) AS position FROM (" +
+                        "SELECT a.film_id, b.film_id AS other_film_id, CAST(COUNT(*) AS INTEGER) AS co_likes " +
+                        "FROM likes AS a JOIN likes AS b ON a.user_id = b.user_id AND a.film_id <> b.film_id " +
+                        "GROUP BY a.film_id, b.film_id) AS pairs) AS ranked WHERE position <= 2 " +
+                        "ORDER BY film_id, co_likes DESC, other_film_id;"),
+                jdbcTemplate.queryForList("SELECT film_id, other_film_id, co_likes FROM film_co_likes " +
+                        "ORDER BY film_id, co_likes DESC, other_film_id;"));
+        for (Integer filmId : filmIds) {
+            assertTrue(filmSimilarity.getSimilarFilmIds(filmId, 10).size() <= 2);
+        }
+    }
+
+    @Test
+    public void checkLikeIsIdempotent() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            films.add(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i + 1)));
+        }
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+        for (User user : users) {
+            for (Film film : films) {
+                filmDbStorage.like(film.getId(), user.getId());
+            }
+        }
+
+        int filmId = films.get(0).getId();
+        int userId = users.get(0).getId();
+        filmDbStorage.like(filmId, userId);
+        assertEquals(50, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, filmId));
+        filmDbStorage.deleteLike(filmId, userId);
+        filmDbStorage.deleteLike(filmId, userId);
+        components.commit();
+        assertEquals(49, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, filmId));
+        assertEquals(20, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM feed WHERE user_id = ? " +
+                "AND event_type = 'LIKE' AND operation = 'ADD';", Integer.class, userId));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM feed WHERE user_id = ? " +
+                "AND event_type = 'LIKE' AND operation = 'REMOVE';", Integer.class, userId));
+        assertEquals(List.of(films.get(1).getId(), films.get(2).getId()),
+                getIds(filmDbStorage.getSimilarFilms(filmId, 2)));
+        assertThrows(ObjectNotFoundException.class, () -> filmDbStorage.like(-1, userId));
+        assertThrows(ObjectNotFoundException.class, () -> filmDbStorage.deleteLike(filmId, -1));
+    }
+
+    @Test
+    public void checkAddFilmsWritesValidFilmsAndReportsBrokenOnes() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        Film withUnknownGenre = createFilmWithGenresAndDirector(2);
+        withUnknownGenre.setGenres(List.of(Genre.builder().id(99).build()));
+        Film withUnknownDirector = createFilmWithGenresAndDirector(3);
+        withUnknownDirector.setDirectors(List.of(Director.builder().id(999).build()));
+        Film withoutMpa = createFilmWithGenresAndDirector(4);
+        withoutMpa.setMpa(null);
+        Film withRepeatedGenre = createFilmWithGenresAndDirector(5);
+        withRepeatedGenre.setGenres(List.of(Genre.builder().id(2).build(), Genre.builder().id(2).build()));
+        List<Film> films = List.of(createFilmWithGenresAndDirector(1), withUnknownGenre, withUnknownDirector,
+                withoutMpa, withRepeatedGenre);
+
+        Map<Integer, String> errors = filmDbStorage.addFilms(films);
+
+        assertEquals(Map.of(1, "Жанр с id = 99 не найден.", 2, "Режиссёр с id = 999 не найден.",
+                3, "Не указан рейтинг MPA."), errors);
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM films;", Integer.class));
+        Film first = filmDbStorage.getFilm(films.get(0).getId());
+        assertEquals("Фильм 1", first.getName());
+        assertEquals(List.of("Драма", "Боевик"), List.of(first.getGenres().get(0).getName(),
+                first.getGenres().get(1).getName()));
+        assertEquals("Режиссёр", first.getDirectors().get(0).getName());
+        assertEquals(1, filmDbStorage.getFilm(withRepeatedGenre.getId()).getGenres().size());
+        assertEquals(List.of(first.getId()), getIds(filmDbStorage.getFilmsByNameOrNameAndDirector("льм 1",
+                "title")));
+        assertEquals(List.of(first.getId(), withRepeatedGenre.getId()),
+                getIds(filmDbStorage.getTopFilms(10, 2, 0)));
+    }
+
+    @Test
+    public void checkAddLikesMatchesSingleLikes() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        components.recommendationEngine.reload();
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        List<Integer> filmIds = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            filmIds.add(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i)).getId());
+        }
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            userIds.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        filmDbStorage.like(filmIds.get(0), userIds.get(0));
+
+        Map<Integer, String> errors = filmDbStorage.addLikes(List.of(
+                new Like(filmIds.get(1), userIds.get(0)),
+                new Like(filmIds.get(2), userIds.get(0)),
+                new Like(filmIds.get(0), userIds.get(0)),
+                new Like(filmIds.get(1), userIds.get(1)),
+                new Like(filmIds.get(1), userIds.get(1)),
+                new Like(filmIds.get(3), userIds.get(1)),
+                new Like(9999, userIds.get(2)),
+                new Like(filmIds.get(2), 9999),
+                new Like(filmIds.get(0), userIds.get(2))));
+        components.commit();
+
+        assertEquals(Map.of(6, "Фильм с id = 9999 не найден.", 7, "Пользователь с id = 9999 не найден."), errors);
+        assertEquals(List.of(2, 2, 1, 1), jdbcTemplate.queryForList("SELECT like_count FROM films " +
+                "ORDER BY film_id;", Integer.class));
+        assertEquals(jdbcTemplate.queryForList("SELECT a.film_id, b.film_id AS other_film_id, " +
+                        "CAST(COUNT(*) AS INTEGER) AS co_likes FROM likes AS a " +
+                        "JOIN likes AS b ON a.user_id = b.user_id AND a.film_id <> b.film_id " +
+                        "GROUP BY a.film_id, b.film_id ORDER BY 1, 2;"),
+                jdbcTemplate.queryForList("SELECT film_id, other_film_id, co_likes FROM film_co_likes " +
+                        "ORDER BY 1, 2;"));
+        assertEquals(List.of(filmIds.get(0), filmIds.get(1), filmIds.get(2), filmIds.get(3)),
+                getIds(filmDbStorage.getTopFilms(4, 0, 0)));
+        RecommendationEngine reloaded = new RecommendationEngine(jdbcTemplate, RecommendationEngine.DEFAULT_NEIGHBOURS,
+                RecommendationEngine.DEFAULT_LIMIT);
+        reloaded.reload();
+        for (Integer userId : userIds) {
+            assertEquals(reloaded.recommendOnline(userId), components.recommendationEngine.recommendOnline(userId));
+        }
+        assertEquals(List.of(filmIds.get(1), filmIds.get(2)), components.recommendationEngine
+                .recommendOnline(userIds.get(2)));
+    }
+
+    @Test
+    public void checkBulkLoadMatchesSingleItems() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        int count = 20;
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            films.add(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i + 1)));
+        }
+        List<Film> bulkFilms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            bulkFilms.add(createFilmWithGenresAndDirector(i + 1));
+        }
+        assertTrue(filmDbStorage.addFilms(bulkFilms).isEmpty());
+        Film single = filmDbStorage.getFilm(films.get(3).getId());
+        Film bulk = filmDbStorage.getFilm(bulkFilms.get(3).getId());
+        assertEquals(single.getGenres(), bulk.getGenres());
+        assertEquals(single.getDirectors(), bulk.getDirectors());
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            users.add(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build());
+        }
+        assertTrue(userDbStorage.addUsers(users).isEmpty());
+        for (User user : users.subList(0, 10)) {
+            for (Film film : films.subList(0, 5)) {
+                filmDbStorage.like(film.getId(), user.getId());
+            }
+        }
+        List<Like> likes = new ArrayList<>();
+        for (User user : users.subList(10, 20)) {
+            for (Film film : bulkFilms.subList(0, 5)) {
+                likes.add(new Like(film.getId(), user.getId()));
+            }
+        }
+        likes.add(new Like(bulkFilms.get(0).getId(), users.get(10).getId()));
+        likes.add(new Like(9999, users.get(10).getId()));
+
+        assertEquals(Map.of(51, "Фильм с id = 9999 не найден."), filmDbStorage.addLikes(likes));
+        components.commit();
+        assertEquals(10, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, films.get(0).getId()));
+        assertEquals(10, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                Integer.class, bulkFilms.get(0).getId()));
+        assertEquals(jdbcTemplate.queryForObject("SELECT co_likes FROM film_co_likes " +
+                        "WHERE film_id = ? AND other_film_id = ?;", Integer.class, films.get(0).getId(),
+                films.get(1).getId()),
+                jdbcTemplate.queryForObject("SELECT co_likes FROM film_co_likes " +
+                        "WHERE film_id = ? AND other_film_id = ?;", Integer.class, bulkFilms.get(0).getId(),
+                        bulkFilms.get(1).getId()));
+    }
+
+    @Test
+    public void checkFilmsAreHydratedWithConstantNumberOfQueries() {
+        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        DirectorDbStorage directorDbStorage = new DirectorDbStorage(jdbcTemplate);
+        testedDirector = Director.builder()
+                .name("Квентин Тарантино")
+                .build();
+        directorDbStorage.addDirector(testedDirector);
+        for (int i = 0; i < 3; i++) {
+            filmDbStorage.addFilm(createFilmWithGenresAndDirector(i));
+        }
+        QueryCountingJdbcTemplate countingJdbcTemplate = new QueryCountingJdbcTemplate(jdbcTemplate.getDataSource());
+        FilmDbStorage countingFilmDbStorage = new FilmDbStorage(countingJdbcTemplate);
+
+        List<Film> smallPage = countingFilmDbStorage.getFilms();
+        int smallPageQueries = countingJdbcTemplate.getQueryCount();
+        for (int i = 3; i < 30; i++) {
+            filmDbStorage.addFilm(createFilmWithGenresAndDirector(i));
+        }
+        countingJdbcTemplate.resetQueryCount();
+        List<Film> bigPage = countingFilmDbStorage.getFilms();
+
+        assertEquals(3, smallPage.size());
+        assertEquals(30, bigPage.size());
+        assertEquals(smallPageQueries, countingJdbcTemplate.getQueryCount());
+        assertEquals(2, bigPage.get(29).getGenres().size());
+        assertEquals("Драма", bigPage.get(29).getGenres().get(0).getName());
+        assertEquals("Квентин Тарантино", bigPage.get(29).getDirectors().get(0).getName());
+        assertEquals("NC-17", bigPage.get(29).getMpa().getName());
+    }
+
+    @Test
+    public void checkGetFilmIsCachedUntilFilmIsUpdated() {
+        QueryCountingJdbcTemplate countingJdbcTemplate = new QueryCountingJdbcTemplate(jdbcTemplate.getDataSource());
+        FilmCache filmCache = new FilmCache(2);
+        FilmDbStorage filmDbStorage = new SharedComponents(jdbcTemplate, filmCache, FilmSuggestions.DEFAULT_TOP_SIZE)
+                .filmStorage(countingJdbcTemplate);
+        testedDirector = Director.builder()
+                .name("Квентин Тарантино")
+                .build();
+        new DirectorDbStorage(jdbcTemplate).addDirector(testedDirector);
+        testedFilm = filmDbStorage.addFilm(createFilmWithGenresAndDirector(1));
+
+        filmDbStorage.getFilm(testedFilm.getId());
+        countingJdbcTemplate.resetQueryCount();
+        Film cachedFilm = filmDbStorage.getFilm(testedFilm.getId());
+
+        assertEquals(0, countingJdbcTemplate.getQueryCount());
+        assertEquals(1, filmCache.getHitCount());
+        assertEquals(1, filmCache.getMissCount());
+
+        testedFilm.setName("Бешеные псы");
+        filmDbStorage.updateFilm(testedFilm);
+
+        assertEquals("Фильм 1", cachedFilm.getName());
+        assertEquals("Бешеные псы", filmDbStorage.getFilm(testedFilm.getId()).getName());
+
+        filmCache.invalidateByDirector(testedDirector.getId());
+        assertEquals(0, filmCache.getSize());
+
+        for (int i = 2; i < 6; i++) {
+            filmDbStorage.getFilm(filmDbStorage.addFilm(createFilmWithGenresAndDirector(i)).getId());
+        }
+        filmCache.cleanUp();
+        assertTrue(filmCache.getSize() <= 2);
+        assertTrue(filmCache.getEvictionCount() > 0);
+    }
+
+    private Film createFilmWithGenresAndDirector(int number) {
+        return Film.builder()
+                .name("Фильм " + number)
+                .description("Описание фильма " + number)
+                .duration(100 + number)
+                .releaseDate(LocalDate.of(1990 + number, 8, 10))
+                .mpa(Rating.builder().id(5).build())
+                .genres(List.of(Genre.builder().id(2).build(), Genre.builder().id(6).build()))
+                .directors(List.of(testedDirector))
+                .build();
+    }
+
+    static class QueryCountingJdbcTemplate extends JdbcTemplate {
+
+        private int queryCount;
+
+        QueryCountingJdbcTemplate(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+            queryCount++;
+            return super.execute(action);
+        }
+
+        @Override
+        public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action)
+                throws DataAccessException {
+            queryCount++;
+            return super.execute(psc, action);
+        }
+
+        int getQueryCount() {
+            return queryCount;
+        }
+
+        void resetQueryCount() {
+            queryCount = 0;
+        }
+    }
 }
@@ -3,12 +3,21 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+
+import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 public class GenreDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
@@ -20,15 +29,50 @@ public class GenreDbStorageTest {
 
     @Test
     public void checkGetGenres() {
-        GenreDbStorage genreDbStorage = new GenreDbStorage(jdbcTemplate);
+        GenreDbStorage genreDbStorage = new GenreDbStorage(new ReferenceDataRegistry(jdbcTemplate));
         assertNotNull(genreDbStorage.getGenres());
         assertEquals(6, genreDbStorage.getGenres().size());
     }
 
     @Test
     public void checkGetGenreById() {
-        GenreDbStorage genreDbStorage = new GenreDbStorage(jdbcTemplate);
+        GenreDbStorage genreDbStorage = new GenreDbStorage(new ReferenceDataRegistry(jdbcTemplate));
         assertNotNull(genreDbStorage.getGenre(1));
         assertEquals("Комедия", genreDbStorage.getGenre(1).getName());
     }
+
+    @Test
+    public void checkGenresAreServedFromRegistryUntilReload() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        GenreDbStorage genreDbStorage = new GenreDbStorage(referenceDataRegistry);
+        assertEquals(6, genreDbStorage.getGenres().size());
+
+        jdbcTemplate.update("INSERT INTO genres (genre_id, name) VALUES (7, 'Вестерн');");
+        assertEquals(6, genreDbStorage.getGenres().size());
+
+        referenceDataRegistry.reload();
+        assertEquals(7, genreDbStorage.getGenres().size());
+        assertEquals("Вестерн", genreDbStorage.getGenre(7).getName());
+    }
+
+    @Test
+    public void checkReloadRefreshesCachedFilms() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        int filmId = filmDbStorage.addFilm(Film.builder()
+                .name("Фильм")
+                .description("Описание")
+                .duration(100)
+                .releaseDate(LocalDate.of(2000, 1, 1))
+                .mpa(Rating.builder().id(1).build())
+                .genres(List.of(Genre.builder().id(1).build()))
+                .build()).getId();
+        assertEquals("Комедия", filmDbStorage.getFilm(filmId).getGenres().get(0).getName());
+
+        jdbcTemplate.update("UPDATE genres SET name = 'Комедия положений' WHERE genre_id = 1;");
+        assertEquals("Комедия", filmDbStorage.getFilm(filmId).getGenres().get(0).getName());
+
+        components.referenceDataRegistry.reload();
+        assertEquals("Комедия положений", filmDbStorage.getFilm(filmId).getGenres().get(0).getName());
+    }
 }
@@ -3,12 +3,15 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 public class MpaDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
@@ -20,14 +23,14 @@ public class MpaDbStorageTest {
 
     @Test
     public void checkGetRatings() {
-        MpaDbStorage mpaDbStorage = new MpaDbStorage(jdbcTemplate);
+        MpaDbStorage mpaDbStorage = new MpaDbStorage(new ReferenceDataRegistry(jdbcTemplate));
         assertNotNull(mpaDbStorage.getRatings());
         assertEquals(5, mpaDbStorage.getRatings().size());
     }
 
     @Test
     public void checkGetRatingById() {
-        MpaDbStorage mpaDbStorage = new MpaDbStorage(jdbcTemplate);
+        MpaDbStorage mpaDbStorage = new MpaDbStorage(new ReferenceDataRegistry(jdbcTemplate));
         assertNotNull(mpaDbStorage.getRating(1));
         assertEquals("G", mpaDbStorage.getRating(1).getName());
     }
@@ -3,20 +3,31 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.exception.ObjectNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+import ru.yandex.practicum.filmorate.storage.review.ReviewUsefulCounter.ReviewUsefulCounter;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 class ReviewDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
@@ -195,7 +206,7 @@ class ReviewDbStorageTest {
                 .isNotNull()
                 .usingRecursiveComparison()
                 .isEqualTo(testedReview);
-        assertEquals(testedReview, reviewDbStorage.getReviewOfFilm(testedFilm.getId(), 1).get(0));
+        assertEquals(testedReview, reviewDbStorage.getReviewOfFilm(testedFilm.getId(), null, 1).getItems().get(0));
     }
 
     @Test
@@ -238,9 +249,9 @@ class ReviewDbStorageTest {
                 .build();
         userDbStorage.addUser(likedUser);
 
-        reviewDbStorage.addLikeOfReview(5, 10);
+        reviewDbStorage.addLikeOfReview(testedReview.getReviewId(), likedUser.getId());
 
-        assertEquals(1, reviewDbStorage.getReview(5).getUseful());
+        assertEquals(1, reviewDbStorage.getReview(testedReview.getReviewId()).getUseful());
     }
 
     @Test
@@ -282,10 +293,10 @@ class ReviewDbStorageTest {
                 .birthday(LocalDate.of(1989, 11, 12))
                 .build();
         userDbStorage.addUser(likedUser);
-        reviewDbStorage.addLikeOfReview(1, 2);
-        reviewDbStorage.deleteLikeOfReview(1, 2);
+        reviewDbStorage.addLikeOfReview(testedReview.getReviewId(), likedUser.getId());
+        reviewDbStorage.deleteLikeOfReview(testedReview.getReviewId(), likedUser.getId());
 
-        assertEquals(0, reviewDbStorage.getReview(1).getUseful());
+        assertEquals(0, reviewDbStorage.getReview(testedReview.getReviewId()).getUseful());
     }
 
     @Test
@@ -327,10 +338,149 @@ class ReviewDbStorageTest {
                 .birthday(LocalDate.of(1989, 11, 12))
                 .build();
         userDbStorage.addUser(disLikedUser);
-        reviewDbStorage.addDislikeOfReview(3, 5);
+        reviewDbStorage.addDislikeOfReview(testedReview.getReviewId(), disLikedUser.getId());
+        assertEquals(-1, reviewDbStorage.getReview(testedReview.getReviewId()).getUseful());
 
-        reviewDbStorage.deleteDislikeOfReview(3, 5);
+        reviewDbStorage.deleteDislikeOfReview(testedReview.getReviewId(), disLikedUser.getId());
 
-        assertEquals(0, reviewDbStorage.getReview(3).getUseful());
+        assertEquals(0, reviewDbStorage.getReview(testedReview.getReviewId()).getUseful());
+    }
+
+    @Test
+    public void checkRepeatedAndChangedVotesAreCountedOnce() {
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(jdbcTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        testedFilm = Film.builder()
+                .name("Маска")
+                .description("Комедия о магической маске.")
+                .duration(126)
+                .releaseDate(LocalDate.of(2003, 3, 26))
+                .mpa(Rating.builder().id(4).build())
+                .build();
+        new FilmDbStorage(jdbcTemplate).addFilm(testedFilm);
+        testedUser = User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build();
+        userDbStorage.addUser(testedUser);
+        testedReview = Review.builder()
+                .content("Отличный фильм, ни один раз его видел.")
+                .isPositive(true)
+                .userId(testedUser.getId())
+                .filmId(testedFilm.getId())
+                .build();
+        reviewDbStorage.addReview(testedReview);
+        int reviewId = testedReview.getReviewId();
+
+        reviewDbStorage.addLikeOfReview(reviewId, testedUser.getId());
+        reviewDbStorage.addLikeOfReview(reviewId, testedUser.getId());
+        assertEquals(1, reviewDbStorage.getReview(reviewId).getUseful());
+
+        reviewDbStorage.addDislikeOfReview(reviewId, testedUser.getId());
+        assertEquals(-1, reviewDbStorage.getReview(reviewId).getUseful());
+        reviewDbStorage.deleteLikeOfReview(reviewId, testedUser.getId());
+        assertEquals(-1, reviewDbStorage.getReview(reviewId).getUseful());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = ?;",
+                Integer.class, reviewId));
+
+        assertEquals(1, reviewUsefulCounter.flush());
+        assertEquals(-1, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = ?;",
+                Integer.class, reviewId));
+        assertEquals(-1, reviewDbStorage.getReview(reviewId).getUseful());
+        assertEquals(-1, reviewDbStorage.getReviewOfFilm(testedFilm.getId(), null, 10).getItems()
+                .get(0).getUseful());
+        assertThrows(ObjectNotFoundException.class, () -> reviewDbStorage.addLikeOfReview(9999,
+                testedUser.getId()));
+        assertThrows(ObjectNotFoundException.class, () -> reviewDbStorage.addLikeOfReview(reviewId, 9999));
+    }
+
+    @Test
+    public void checkReviewsOfFilmAreReadInPagesByCursor() {
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate);
+        testedFilm = Film.builder()
+                .name("Маска")
+                .description("Комедия")
+                .duration(126)
+                .releaseDate(LocalDate.of(2003, 3, 26))
+                .mpa(Rating.builder().id(4).build())
+                .build();
+        new FilmDbStorage(jdbcTemplate).addFilm(testedFilm);
+        testedUser = User.builder()
+                .name("Валерий")
+                .login("Bicycle")
+                .email("broken.velik@yandex.ru")
+                .birthday(LocalDate.of(1999, 5, 22))
+                .build();
+        new UserDbStorage(jdbcTemplate).addUser(testedUser);
+        int[] useful = {3, -1, 3, 0, 5, 0, 3};
+        for (int value : useful) {
+            jdbcTemplate.update("INSERT INTO reviews (content, is_positive, user_id, film_id, useful) " +
+                    "VALUES ('Отзыв', TRUE, ?, ?, ?);", testedUser.getId(), testedFilm.getId(), value);
+        }
+        List<Integer> expected = jdbcTemplate.queryForList("SELECT review_id FROM reviews " +
+                "ORDER BY useful DESC, review_id;", Integer.class);
+
+        List<Integer> reviewIds = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Page<Review> page = reviewDbStorage.getReviewOfFilm(testedFilm.getId(), cursor, 3);
+            page.getItems().forEach(review -> reviewIds.add(review.getReviewId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(expected, reviewIds);
+        assertEquals(3, pages);
+        assertEquals(expected.subList(3, 7), reviewDbStorage.getReviewOfFilm(null, "3," + expected.get(2), 10)
+                .getItems().stream().map(Review::getReviewId).collect(Collectors.toList()));
+        assertEquals(List.of(), reviewDbStorage.getReviewOfFilm(testedFilm.getId(), "-1," + expected.get(6), 3)
+                .getItems());
+        assertThrows(ObjectNotFoundException.class, () -> reviewDbStorage.getReviewOfFilm(9999, null, 3));
+        assertThrows(ValidationException.class, () -> reviewDbStorage.getReviewOfFilm(null, "3", 3));
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT* FROM reviews WHERE TRUE AND film_id = 1 " +
+                "AND useful <= 3 AND (useful < 3 OR review_id > 1) ORDER BY film_id, useful DESC, review_id " +
+                "LIMIT 3;", String.class);
+        assertTrue(plan.toLowerCase().contains("reviews_film_useful_idx"), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    public void checkPendingVotesKeepReviewIdOrderForEqualUseful() {
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate);
+        testedFilm = Film.builder()
+                .name("Маска")
+                .description("Комедия")
+                .duration(126)
+                .releaseDate(LocalDate.of(2003, 3, 26))
+                .mpa(Rating.builder().id(4).build())
+                .build();
+        new FilmDbStorage(jdbcTemplate).addFilm(testedFilm);
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            userIds.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        for (int value : new int[]{0, 2}) {
+            jdbcTemplate.update("INSERT INTO reviews (content, is_positive, user_id, film_id, useful) " +
+                    "VALUES ('Отзыв', TRUE, ?, ?, ?);", userIds.get(0), testedFilm.getId(), value);
+        }
+        List<Integer> reviewIds = jdbcTemplate.queryForList("SELECT review_id FROM reviews ORDER BY review_id;",
+                Integer.class);
+        for (Integer userId : userIds) {
+            reviewDbStorage.addLikeOfReview(reviewIds.get(0), userId);
+        }
+
+        assertEquals(reviewIds, reviewDbStorage.getReviewOfFilm(testedFilm.getId(), null, 10).getItems().stream()
+                .map(Review::getReviewId).collect(Collectors.toList()));
     }
 }
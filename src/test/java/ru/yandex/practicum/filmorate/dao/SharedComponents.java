@@ -0,0 +1,88 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmLeaderboard.FilmLeaderboard;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarity.FilmSimilarity;
+import ru.yandex.practicum.filmorate.storage.film.FilmSuggestions.FilmSuggestions;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
+
+import java.util.List;
+
+/**
+ * Общие экземпляры кэша и индексов для тестов, в которых несколько хранилищ должны видеть изменения друг друга,
+ * как в контексте Spring.
+ */
+class SharedComponents {
+
+    final JdbcTemplate jdbcTemplate;
+    final ReferenceDataRegistry referenceDataRegistry;
+    final FilmCache filmCache;
+    final FilmLeaderboard filmLeaderboard;
+    final FilmSearchIndex filmSearchIndex;
+    final FilmSuggestions filmSuggestions;
+    final RecommendationEngine recommendationEngine;
+    final FilmSimilarity filmSimilarity;
+    final FriendGraph friendGraph;
+    final FeedDbStorage feedDbStorage;
+
+    SharedComponents(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new FilmCache(FilmCache.DEFAULT_CAPACITY), FilmSuggestions.DEFAULT_TOP_SIZE);
+    }
+
+    SharedComponents(JdbcTemplate jdbcTemplate, FilmCache filmCache, int suggestionsTopSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.filmCache = filmCache;
+        this.referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate, filmCache);
+        this.filmLeaderboard = new FilmLeaderboard(jdbcTemplate);
+        this.filmSearchIndex = new FilmSearchIndex(jdbcTemplate);
+        this.filmSuggestions = new FilmSuggestions(jdbcTemplate, suggestionsTopSize);
+        this.recommendationEngine = new RecommendationEngine(jdbcTemplate, RecommendationEngine.DEFAULT_NEIGHBOURS,
+                RecommendationEngine.DEFAULT_LIMIT);
+        this.filmSimilarity = new FilmSimilarity(jdbcTemplate, FilmSimilarity.DEFAULT_TOP_SIZE,
+                FilmSimilarity.DEFAULT_CACHE_CAPACITY);
+        this.friendGraph = new FriendGraph(jdbcTemplate, FriendGraph.DEFAULT_FAN_OUT);
+        this.feedDbStorage = new FeedDbStorage(jdbcTemplate, friendGraph);
+    }
+
+    FilmDbStorage filmStorage() {
+        return filmStorage(jdbcTemplate);
+    }
+
+    FilmDbStorage filmStorage(JdbcTemplate filmJdbcTemplate) {
+        return new FilmDbStorage(filmJdbcTemplate, referenceDataRegistry, filmCache, filmLeaderboard, filmSearchIndex,
+                filmSuggestions, recommendationEngine, filmSimilarity, feedDbStorage,
+                new DirectorDbStorage(filmJdbcTemplate, filmSearchIndex, filmSuggestions));
+    }
+
+    UserDbStorage userStorage() {
+        return new UserDbStorage(jdbcTemplate, filmStorage(), filmCache, filmLeaderboard, filmSuggestions,
+                recommendationEngine, filmSimilarity, friendGraph, feedDbStorage);
+    }
+
+    DirectorDbStorage directorStorage() {
+        return new DirectorDbStorage(jdbcTemplate, filmSearchIndex, filmSuggestions);
+    }
+
+    /**
+     * Как после фиксации транзакции теста: выполняет отложенные действия и разбирает очередь похожих фильмов.
+     */
+    void commit() {
+        afterCommit();
+        filmSimilarity.flush();
+    }
+
+    /**
+     * Выполняет действия, отложенные до фиксации транзакции: транзакция теста откатывается и сама их не вызовет.
+     */
+    static void afterCommit() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+    }
+}
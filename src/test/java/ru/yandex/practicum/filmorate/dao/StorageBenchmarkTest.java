@@ -0,0 +1,407 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+import ru.yandex.practicum.filmorate.storage.review.ReviewUsefulCounter.ReviewUsefulCounter;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Замеры скорости хранилищ. В обычную сборку не входят, запускаются профилем benchmark: mvn test -Pbenchmark.
+ * Скорость выводится в консоль, проверяется только корректность записанных данных.
+ */
+@JdbcTest
+@Import(SchemaMigrator.class)
+@Tag("benchmark")
+class StorageBenchmarkTest {
+
+    static final int WARMUP_ROUNDS = 2;
+    static final int VOTE_THREADS = 8;
+    static final int VOTERS = 4000;
+
+    final JdbcTemplate jdbcTemplate;
+    Director testedDirector;
+
+    @Autowired
+    public StorageBenchmarkTest(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Загрузка пачкой против записи по одному. Лайк по одному пишет ещё и событие в ленту, а загрузка пачкой
+     * его не пишет, поэтому для лайков сравнивается весь путь записи, а не только вставка.
+     */
+    @Test
+    public void benchmarkBulkLoadAgainstSingleItems() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        int films = 1000;
+        int users = 100;
+        int filmsPerUser = 20;
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            int scale = round < WARMUP_ROUNDS ? 10 : 1;
+            List<Film> single = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < films / scale; i++) {
+                single.add(filmDbStorage.addFilm(createFilm(i % 20 + 1)));
+            }
+            long singleFilmNanos = System.nanoTime() - start;
+            List<Film> bulk = new ArrayList<>();
+            for (int i = 0; i < films / scale; i++) {
+                bulk.add(createFilm(i % 20 + 1));
+            }
+            start = System.nanoTime();
+            assertTrue(filmDbStorage.addFilms(bulk).isEmpty());
+            long bulkFilmNanos = System.nanoTime() - start;
+
+            List<User> newUsers = new ArrayList<>();
+            for (int i = 0; i < users / scale * 2; i++) {
+                newUsers.add(User.builder()
+                        .name("Пользователь " + i)
+                        .login("user" + round + "_" + i)
+                        .email("user" + round + "_" + i + "@yandex.ru")
+                        .birthday(LocalDate.of(1990, 1, 1))
+                        .build());
+            }
+            assertTrue(userDbStorage.addUsers(newUsers).isEmpty());
+            int half = newUsers.size() / 2;
+            start = System.nanoTime();
+            for (User user : newUsers.subList(0, half)) {
+                for (Film film : single.subList(0, filmsPerUser)) {
+                    filmDbStorage.like(film.getId(), user.getId());
+                }
+            }
+            long singleLikeNanos = System.nanoTime() - start;
+            List<Like> likes = new ArrayList<>();
+            for (User user : newUsers.subList(half, newUsers.size())) {
+                for (Film film : bulk.subList(0, filmsPerUser)) {
+                    likes.add(new Like(film.getId(), user.getId()));
+                }
+            }
+            start = System.nanoTime();
+            assertTrue(filmDbStorage.addLikes(likes).isEmpty());
+            long bulkLikeNanos = System.nanoTime() - start;
+
+            assertEquals(half, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                    Integer.class, bulk.get(0).getId()));
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("Фильмы: по одному %d в секунду, пачкой %d в секунду%n",
+                        perSecond(single.size(), singleFilmNanos), perSecond(bulk.size(), bulkFilmNanos));
+                System.out.printf("Лайки: по одному с событием ленты %d в секунду, пачкой %d в секунду%n",
+                        perSecond(likes.size(), singleLikeNanos), perSecond(likes.size(), bulkLikeNanos));
+            }
+        }
+    }
+
+    /**
+     * Лайк одним INSERT ... SELECT против прежнего пути: отдельные запросы на фильм и пользователя, проверка
+     * повторного лайка и вставка. Оба пути пишут событие в ленту и обновляют счётчик фильма. Пути чередуются
+     * по пользователям, чтобы рост таблиц не доставался только второму.
+     */
+    @Test
+    public void benchmarkLikesPerSecond() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        UserDbStorage userDbStorage = components.userStorage();
+        testedDirector = components.directorStorage().addDirector(Director.builder().name("Режиссёр").build());
+        int filmsPerRound = 20;
+        int usersPerRound = 50;
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            List<Film> films = new ArrayList<>();
+            for (int i = 0; i < filmsPerRound * 2; i++) {
+                films.add(filmDbStorage.addFilm(createFilm(i % 20 + 1)));
+            }
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < usersPerRound * 2; i++) {
+                users.add(userDbStorage.addUser(User.builder()
+                        .name("Пользователь " + i)
+                        .login("liker" + round + "_" + i)
+                        .email("liker" + round + "_" + i + "@yandex.ru")
+                        .birthday(LocalDate.of(1990, 1, 1))
+                        .build()));
+            }
+
+            long lookupNanos = 0;
+            long likeNanos = 0;
+            for (int i = 0; i < usersPerRound; i++) {
+                long start = System.nanoTime();
+                for (Film film : films.subList(0, filmsPerRound)) {
+                    likeWithLookups(components, filmDbStorage, userDbStorage, film.getId(), users.get(i).getId());
+                }
+                lookupNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                for (Film film : films.subList(filmsPerRound, films.size())) {
+                    filmDbStorage.like(film.getId(), users.get(usersPerRound + i).getId());
+                }
+                likeNanos += System.nanoTime() - start;
+            }
+
+            assertEquals(usersPerRound, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                    Integer.class, films.get(0).getId()));
+            assertEquals(usersPerRound, jdbcTemplate.queryForObject("SELECT like_count FROM films WHERE film_id = ?;",
+                    Integer.class, films.get(filmsPerRound).getId()));
+            if (round == WARMUP_ROUNDS) {
+                int likes = usersPerRound * filmsPerRound;
+                System.out.printf("Лайки: с проверками %d в секунду, одним INSERT %d в секунду%n",
+                        perSecond(likes, lookupNanos), perSecond(likes, likeNanos));
+            }
+        }
+    }
+
+    /**
+     * Прежний путь лайка: отдельные запросы на фильм и пользователя и событие в ленту на каждый вызов.
+     */
+    private void likeWithLookups(SharedComponents components, FilmDbStorage filmDbStorage, UserDbStorage userDbStorage,
+                                 int id, int userId) {
+        if (filmDbStorage.getFilm(id) != null && userDbStorage.getUser(userId) != null) {
+            int inserted = jdbcTemplate.update("INSERT INTO likes (film_id, user_id) " +
+                    "SELECT ?, ? FROM DUAL " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?);", id, userId, id, userId);
+            if (inserted > 0) {
+                jdbcTemplate.update("UPDATE films SET like_count = like_count + 1 WHERE film_id = ?;", id);
+                components.filmLeaderboard.changeLikes(id, 1);
+                components.filmSuggestions.changeLikes(id, 1);
+                components.recommendationEngine.addLike(userId, id);
+                components.filmSimilarity.addLike(userId, id);
+            }
+            components.feedDbStorage.createFeed(new Feed(0, System.currentTimeMillis(), userId, "LIKE", "ADD", id));
+        }
+    }
+
+    /**
+     * Поиск по триграммному индексу в памяти против LIKE '%...%' по таблицам фильмов и режиссёров
+     * на 5 000 фильмах. Оба способа должны находить одни и те же фильмы.
+     */
+    @Test
+    public void benchmarkSearchIndexAgainstLikeScan() {
+        SharedComponents components = new SharedComponents(jdbcTemplate);
+        FilmSearchIndex filmSearchIndex = components.filmSearchIndex;
+        FilmDbStorage filmDbStorage = components.filmStorage();
+        DirectorDbStorage directorDbStorage = components.directorStorage();
+        List<String> names = List.of("Квентин Тарантино", "Гай Ричи", "Christopher Nolan", "Стэнли Кубрик",
+                "Андрей Тарковский");
+        List<Director> directors = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            directors.add(directorDbStorage.addDirector(Director.builder()
+                    .name(names.get(i % names.size()) + " " + i)
+                    .build()));
+        }
+        List<String> titles = List.of("Бешеные псы", "Криминальное чтиво", "Большой куш", "Interstellar",
+                "Карты, деньги, два ствола", "Сталкер", "Сияние");
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            films.add(Film.builder()
+                    .name(titles.get(i % titles.size()) + " " + i)
+                    .description("Описание фильма " + i)
+                    .duration(100)
+                    .releaseDate(LocalDate.of(1990 + i % 30, 1, 1))
+                    .mpa(Rating.builder().id(1).build())
+                    .directors(i % 4 == 3 ? List.of() : List.of(directors.get(i % directors.size())))
+                    .build());
+        }
+        assertTrue(filmDbStorage.addFilms(films).isEmpty());
+
+        List<String> queries = List.of("бешеные", "ЧТИВО", "тарант", "ствол", "ри", "nolan", "1234",
+                "такого нет");
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long indexNanos = 0;
+            long likeNanos = 0;
+            for (String by : List.of("title", "director", "title,director")) {
+                for (String query : queries) {
+                    long start = System.nanoTime();
+                    Set<Integer> found = filmSearchIndex.search(query, !by.equals("director"),
+                            !by.equals("title"));
+                    indexNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    List<Integer> expected = searchByLikeScan(query, by);
+                    likeNanos += System.nanoTime() - start;
+
+                    assertEquals(new HashSet<>(expected), found, by + ": " + query);
+                }
+            }
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("Поиск по %d фильмам: индекс %d мкс, LIKE %d мкс на %d запросов%n",
+                        films.size(), indexNanos / 1000, likeNanos / 1000, queries.size() * 3);
+            }
+        }
+    }
+
+    private List<Integer> searchByLikeScan(String query, String by) {
+        String sql = "SELECT f.film_id FROM films AS f " +
+                "LEFT OUTER JOIN film_director AS fd ON f.film_id=fd.film_id " +
+                "LEFT OUTER JOIN directors AS d ON fd.director_id=d.director_id ";
+        if (by.equals("title")) {
+            return jdbcTemplate.queryForList(sql + "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                    "GROUP BY f.film_id;", Integer.class, query);
+        } else if (by.equals("director")) {
+            return jdbcTemplate.queryForList(sql + "WHERE LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                    "GROUP BY f.film_id;", Integer.class, query);
+        }
+        return jdbcTemplate.queryForList(sql + "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                "OR LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) GROUP BY f.film_id;", Integer.class, query, query);
+    }
+
+    /**
+     * Голоса за один отзыв из нескольких потоков: через счётчик в памяти против изменения строки отзыва в той же
+     * транзакции. Потокам нужны отдельные соединения, поэтому замер идёт на своём пуле, а не в транзакции теста.
+     * Во встроенной H2 блокировка строки держится микросекунды, так что разница меньше, чем на сетевой базе.
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void benchmarkVotesPerSecondForOneReview() throws Exception {
+        try (HikariDataSource dataSource = new HikariDataSource()) {
+            dataSource.setJdbcUrl("jdbc:h2:mem:votes" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+            dataSource.setUsername("sa");
+            dataSource.setMaximumPoolSize(VOTE_THREADS);
+            new SchemaMigrator(dataSource).migrate();
+            JdbcTemplate votesTemplate = new JdbcTemplate(dataSource);
+            votesTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, " +
+                    "rating_id, like_count) VALUES (1, 'Фильм', 'Описание', '2000-01-01', 100, 1, 0);");
+            List<Object[]> users = new ArrayList<>();
+            for (int id = 1; id <= VOTERS; id++) {
+                users.add(new Object[]{id, "user" + id + "@yandex.ru", "user" + id});
+            }
+            votesTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) " +
+                    "VALUES (?, ?, ?, 'Имя', '1990-01-01');", users);
+            votesTemplate.update("INSERT INTO reviews (review_id, content, is_positive, user_id, film_id, useful) " +
+                    "VALUES (1, 'Отзыв', TRUE, 1, 1, 0), (2, 'Отзыв', TRUE, 1, 1, 0), (3, 'Отзыв', TRUE, 1, 1, 0), " +
+                    "(4, 'Отзыв', TRUE, 1, 1, 0);");
+            ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(votesTemplate);
+            ReviewDbStorage reviewDbStorage = new ReviewDbStorage(votesTemplate, new FilmDbStorage(votesTemplate),
+                    new UserDbStorage(votesTemplate), new FeedDbStorage(votesTemplate), reviewUsefulCounter);
+            TransactionTemplate transactionTemplate = new TransactionTemplate(
+                    new DataSourceTransactionManager(dataSource));
+
+            voteConcurrently(userId -> voteWithRowUpdate(votesTemplate, transactionTemplate, 3, userId));
+            voteConcurrently(userId -> reviewDbStorage.addLikeOfReview(4, userId));
+            long rowUpdateNanos = voteConcurrently(userId ->
+                    voteWithRowUpdate(votesTemplate, transactionTemplate, 1, userId));
+            long counterNanos = voteConcurrently(userId -> reviewDbStorage.addLikeOfReview(2, userId));
+
+            assertEquals(VOTERS, votesTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 1;",
+                    Integer.class));
+            assertEquals(VOTERS, reviewDbStorage.getReview(2).getUseful());
+            reviewUsefulCounter.flush();
+            assertEquals(VOTERS, votesTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 2;",
+                    Integer.class));
+            System.out.printf("Голосов в секунду за один отзыв в %d потоков: %d через строку отзыва, " +
+                            "%d через счётчик%n", VOTE_THREADS, perSecond(VOTERS, rowUpdateNanos),
+                    perSecond(VOTERS, counterNanos));
+        }
+    }
+
+    /**
+     * Прежний путь голоса: рейтинг меняется в строке отзыва в одной транзакции с записью голоса.
+     */
+    private void voteWithRowUpdate(JdbcTemplate votesTemplate, TransactionTemplate transactionTemplate,
+                                   int reviewId, int userId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            votesTemplate.update("INSERT INTO review_votes (review_id, user_id, vote) VALUES (?, ?, 1);",
+                    reviewId, userId);
+            votesTemplate.update("UPDATE reviews SET useful = useful + 1 WHERE review_id = ?;", reviewId);
+        });
+    }
+
+    private static long voteConcurrently(IntConsumer vote) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(VOTE_THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int thread = 0; thread < VOTE_THREADS; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < VOTERS; i += VOTE_THREADS) {
+                        vote.accept(i + 1);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Рекомендации на лету при 10 000 пользователей со 100 лайками каждый.
+     */
+    @Test
+    public void benchmarkRecommendationsAtMillionLikes() {
+        RecommendationEngine recommendationEngine = new RecommendationEngine(jdbcTemplate,
+                RecommendationEngine.DEFAULT_NEIGHBOURS, RecommendationEngine.DEFAULT_LIMIT);
+        recommendationEngine.reload();
+        Random random = new Random(42);
+        List<Set<Integer>> likes = new ArrayList<>();
+        for (int userId = 1; userId <= 10_000; userId++) {
+            Set<Integer> userLikes = new HashSet<>();
+            while (userLikes.size() < 100) {
+                double popularity = random.nextDouble();
+                userLikes.add((int) (20_000 * popularity * popularity) + 1);
+            }
+            for (Integer filmId : userLikes) {
+                recommendationEngine.addLike(userId, filmId);
+            }
+            likes.add(userLikes);
+        }
+        for (int userId = 101; userId <= 200; userId++) {
+            recommendationEngine.recommendOnline(userId);
+        }
+
+        long start = System.nanoTime();
+        for (int userId = 1; userId <= 100; userId++) {
+            List<Integer> recommendations = recommendationEngine.recommendOnline(userId);
+            assertEquals(RecommendationEngine.DEFAULT_LIMIT, recommendations.size());
+            for (Integer filmId : recommendations) {
+                assertFalse(likes.get(userId - 1).contains(filmId));
+            }
+        }
+        System.out.printf("Рекомендации при 1 млн лайков: %d мкс на пользователя%n",
+                (System.nanoTime() - start) / 100 / 1000);
+    }
+
+    private static long perSecond(int rows, long nanos) {
+        return rows * 1_000_000_000L / nanos;
+    }
+
+    private Film createFilm(int number) {
+        return Film.builder()
+                .name("Фильм " + number)
+                .description("Описание фильма " + number)
+                .duration(100 + number)
+                .releaseDate(LocalDate.of(1990 + number, 8, 10))
+                .mpa(Rating.builder().id(5).build())
+                .genres(List.of(Genre.builder().id(2).build(), Genre.builder().id(6).build()))
+                .directors(List.of(testedDirector))
+                .build();
+    }
+}
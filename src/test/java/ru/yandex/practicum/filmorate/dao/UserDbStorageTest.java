@@ -3,19 +3,27 @@ package ru.yandex.practicum.filmorate.dao;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationBatchJob.RecommendationBatchJob;
+import ru.yandex.practicum.filmorate.storage.user.RecommendationEngine.RecommendationEngine;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
+@Import(SchemaMigrator.class)
 class UserDbStorageTest {
 
     final JdbcTemplate jdbcTemplate;
@@ -44,6 +52,69 @@ class UserDbStorageTest {
                 .isEqualTo(testedUser);
     }
 
+    @Test
+    public void checkAddUsersWritesBatchAndFillsEmptyNames() {
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<User> users = List.of(User.builder()
+                        .name("Валерий")
+                        .login("Bicycle")
+                        .email("broken.velik@yandex.ru")
+                        .birthday(LocalDate.of(1999, 5, 22))
+                        .build(),
+                User.builder()
+                        .name(" ")
+                        .login("Seryoga")
+                        .email("voyu.na_lunu@yandex.ru")
+                        .birthday(LocalDate.of(1997, 6, 13))
+                        .build());
+
+        assertTrue(userDbStorage.addUsers(users).isEmpty());
+
+        assertTrue(users.get(1).getId() > users.get(0).getId());
+        assertThat(userDbStorage.getUser(users.get(0).getId()))
+                .usingRecursiveComparison()
+                .isEqualTo(users.get(0));
+        assertEquals("Seryoga", userDbStorage.getUser(users.get(1).getId()).getName());
+    }
+
+    @Test
+    public void checkAddUsersReportsUsersThatDoNotFitColumns() {
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<User> users = List.of(User.builder()
+                        .name("Валерий")
+                        .login("Bicycle")
+                        .email("broken.velik@yandex.ru")
+                        .birthday(LocalDate.of(1999, 5, 22))
+                        .build(),
+                User.builder()
+                        .name("Сергей")
+                        .login("Seryoga_the_moon_walker")
+                        .email("voyu.na_lunu@yandex.ru")
+                        .birthday(LocalDate.of(1997, 6, 13))
+                        .build(),
+                User.builder()
+                        .name("")
+                        .login("Seryoga")
+                        .email("voyu.na_lunu@yandex.ru")
+                        .build(),
+                User.builder()
+                        .name("Константин Константинопольский")
+                        .login("Kostya")
+                        .email("kostya@yandex.ru")
+                        .birthday(LocalDate.of(1990, 1, 1))
+                        .build());
+
+        Map<Integer, String> errors = userDbStorage.addUsers(users);
+
+        assertEquals(Set.of(1, 2, 3), errors.keySet());
+        assertEquals("Поле login длиннее 20 символов.", errors.get(1));
+        assertEquals("Не указана дата рождения.", errors.get(2));
+        assertEquals("Поле name длиннее 20 символов.", errors.get(3));
+        assertEquals(List.of("Bicycle"), jdbcTemplate.queryForList("SELECT login FROM users;", String.class));
+        assertEquals(users.get(0).getId(), userDbStorage.getUser(users.get(0).getId()).getId());
+        assertNull(users.get(1).getId());
+    }
+
     @Test
     public void checkAddUserIfUserCanPasseValidationButHisNameIsEmpty() {
         UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
@@ -209,6 +280,98 @@ class UserDbStorageTest {
                 .isEqualTo(friends);
     }
 
+    @Test
+    public void checkCommonFriendsAndMutualFriendship() {
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            users.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990 + i, 1, 1))
+                    .build()));
+        }
+        int first = users.get(0).getId();
+        int second = users.get(1).getId();
+        userDbStorage.addFriend(first, second);
+        userDbStorage.addFriend(first, users.get(3).getId());
+        userDbStorage.addFriend(first, users.get(2).getId());
+        userDbStorage.addFriend(second, users.get(3).getId());
+        userDbStorage.addFriend(second, users.get(2).getId());
+        userDbStorage.addFriend(second, first);
+
+        assertEquals(List.of(users.get(2), users.get(3)), userDbStorage.getCommonFriends(first, second));
+        assertEquals(List.of(users.get(1), users.get(2), users.get(3)), userDbStorage.getFriendsOfUser(first));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM friends WHERE status_of_friendship",
+                Integer.class));
+
+        userDbStorage.deleteFriend(second, first);
+        userDbStorage.deleteUserById(users.get(3).getId());
+
+        assertEquals(List.of(users.get(2)), userDbStorage.getCommonFriends(first, second));
+        assertEquals(List.of(users.get(2)),
+                new UserDbStorage(jdbcTemplate).getCommonFriends(first, second));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM friends WHERE status_of_friendship",
+                Integer.class));
+    }
+
+    @Test
+    public void checkFriendSuggestionsAreRankedByMutualFriends() {
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990 + i, 1, 1))
+                    .build()));
+        }
+        userDbStorage.addFriend(users.get(0).getId(), users.get(1).getId());
+        userDbStorage.addFriend(users.get(0).getId(), users.get(2).getId());
+        userDbStorage.addFriend(users.get(1).getId(), users.get(0).getId());
+        userDbStorage.addFriend(users.get(1).getId(), users.get(4).getId());
+        userDbStorage.addFriend(users.get(1).getId(), users.get(3).getId());
+        userDbStorage.addFriend(users.get(2).getId(), users.get(3).getId());
+
+        assertEquals(List.of(users.get(3), users.get(4)), userDbStorage.getFriendSuggestions(users.get(0).getId(), 10));
+        assertEquals(List.of(users.get(3)), userDbStorage.getFriendSuggestions(users.get(0).getId(), 1));
+        assertEquals(List.of(users.get(2)), userDbStorage.getFriendSuggestions(users.get(1).getId(), 10));
+
+        FriendGraph boundedGraph = new FriendGraph(jdbcTemplate, 2);
+        assertEquals(List.of(users.get(3).getId(), users.get(4).getId()),
+                boundedGraph.suggestFriendIds(users.get(0).getId(), 10));
+        assertTrue(new FriendGraph(jdbcTemplate, 1).suggestFriendIds(users.get(0).getId(), 10).isEmpty());
+    }
+
+    @Test
+    public void checkGetUsersPageAfterId() {
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            users.add(userDbStorage.addUser(User.builder()
+                    .name("Пользователь " + i)
+                    .login("user" + i)
+                    .email("user" + i + "@yandex.ru")
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+
+        assertThat(userDbStorage.getUsers(0, 2))
+                .usingRecursiveComparison()
+                .isEqualTo(users.subList(0, 2));
+        assertThat(userDbStorage.getUsers(users.get(1).getId(), 2))
+                .usingRecursiveComparison()
+                .isEqualTo(users.subList(2, 3));
+
+        List<User> exported = new ArrayList<>();
+        userDbStorage.exportUsers(exported::add);
+        assertThat(exported)
+                .usingRecursiveComparison()
+                .isEqualTo(users);
+    }
+
     @Test
     public void checkDeleteUser() {
         UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
@@ -270,6 +433,51 @@ class UserDbStorageTest {
 
     }
 
+    @Test
+    public void checkRecommendationsComeFromNearestNeighboursAndSkipLikedFilms() {
+        RecommendationEngine recommendationEngine = new RecommendationEngine(jdbcTemplate, 2, 3);
+        recommendationEngine.reload();
+        Map<Integer, List<Integer>> likes = Map.of(
+                1, List.of(1, 2, 3, 4),
+                2, List.of(1, 2, 3, 5),
+                3, List.of(1, 2, 6, 7),
+                4, List.of(1, 8),
+                5, List.of(9));
+        likes.forEach((userId, filmIds) -> filmIds.forEach(filmId -> recommendationEngine.addLike(userId, filmId)));
+
+        assertEquals(List.of(5, 6, 7), recommendationEngine.recommend(1));
+
+        recommendationEngine.addLike(1, 5);
+        assertEquals(List.of(6, 7), recommendationEngine.recommend(1));
+        assertEquals(List.of(), recommendationEngine.recommend(5));
+    }
+
+    @Test
+    public void checkRecommendationsArePrecomputedInBatch() {
+        RecommendationEngine recommendationEngine = new RecommendationEngine(jdbcTemplate,
+                RecommendationEngine.DEFAULT_NEIGHBOURS, RecommendationEngine.DEFAULT_LIMIT);
+        recommendationEngine.reload();
+        recommendationEngine.addLike(1, 1);
+        recommendationEngine.addLike(2, 1);
+        recommendationEngine.addLike(2, 2);
+        recommendationEngine.addLike(3, 1);
+        recommendationEngine.addLike(3, 3);
+        assertNull(recommendationEngine.getStats().getComputedAt());
+
+        new RecommendationBatchJob(recommendationEngine, 2).run();
+
+        assertEquals(3, recommendationEngine.getStats().getUserCount());
+        assertTrue(recommendationEngine.getStats().getStalenessMillis() >= 0);
+        assertEquals(List.of(2, 3), recommendationEngine.recommend(1));
+
+        recommendationEngine.addLike(2, 4);
+        assertEquals(List.of(2, 3), recommendationEngine.recommend(1));
+        assertTrue(recommendationEngine.recommendOnline(1).contains(4));
+
+        recommendationEngine.addLike(1, 2);
+        assertEquals(List.of(4, 3), recommendationEngine.recommend(1));
+    }
+
     @Test
     public void noRecommendation() {
         UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
@@ -0,0 +1,160 @@
+package ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Feed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedSubscriptionsTest {
+
+    static final int BUFFER_SIZE = 4;
+    static final FeedSubscriptions.Replay NO_REPLAY = (eventId, limit) -> List.of();
+
+    FeedSubscriptions feedSubscriptions;
+
+    @BeforeEach
+    public void createSubscriptions() {
+        feedSubscriptions = new FeedSubscriptions(BUFFER_SIZE, 2);
+    }
+
+    @AfterEach
+    public void stopSubscriptions() {
+        feedSubscriptions.stop();
+    }
+
+    @Test
+    public void checkEventsAreDeliveredToSubscribersOfTheirUser() throws InterruptedException {
+        RecordingSink first = new RecordingSink();
+        RecordingSink second = new RecordingSink();
+        feedSubscriptions.subscribe(1, null, first, NO_REPLAY);
+        feedSubscriptions.subscribe(2, null, second, NO_REPLAY);
+
+        feedSubscriptions.publish(List.of(createFeed(1, 1), createFeed(2, 2), createFeed(3, 1)));
+
+        assertEquals(List.of(1, 3), first.awaitEventIds(2));
+        assertEquals(List.of(2), second.awaitEventIds(1));
+    }
+
+    @Test
+    public void checkSubscriptionResumesAfterLastEventId() throws InterruptedException {
+        List<Feed> history = IntStream.rangeClosed(1, 10)
+                .mapToObj(eventId -> createFeed(eventId, 1))
+                .collect(Collectors.toList());
+        FeedSubscriptions.Replay replay = (eventId, limit) -> history.stream()
+                .filter(feed -> feed.getEventId() > eventId)
+                .limit(limit)
+                .collect(Collectors.toList());
+        RecordingSink sink = new RecordingSink();
+
+        feedSubscriptions.subscribe(1, 3, sink, replay);
+        feedSubscriptions.publish(List.of(createFeed(10, 1), createFeed(11, 1)));
+
+        assertEquals(List.of(4, 5, 6, 7, 8, 9, 10, 11), sink.awaitEventIds(8));
+    }
+
+    @Test
+    public void checkSlowSubscriberIsClosedWhenBufferIsFull() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            public void send(Feed feed) {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(feed);
+            }
+        };
+        feedSubscriptions.subscribe(1, null, sink, NO_REPLAY);
+        feedSubscriptions.publish(List.of(createFeed(1, 1)));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        for (int eventId = 2; eventId <= BUFFER_SIZE + 2; eventId++) {
+            feedSubscriptions.publish(List.of(createFeed(eventId, 1)));
+        }
+        release.countDown();
+
+        assertTrue(sink.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, feedSubscriptions.size());
+    }
+
+    @Test
+    public void checkIdleSubscribersUseLittleMemory() throws InterruptedException {
+        int count = 20_000;
+        List<FeedSubscriptions.Subscription> subscriptions = new ArrayList<>(count);
+        long before = usedMemory();
+        for (int i = 1; i <= count; i++) {
+            subscriptions.add(feedSubscriptions.subscribe(i, null, new IdleSink(), NO_REPLAY));
+        }
+        long bytesPerSubscriber = (usedMemory() - before) / count;
+        System.out.printf("Памяти на простаивающую подписку: %d байт.%n", bytesPerSubscriber);
+
+        assertEquals(count, feedSubscriptions.size());
+        assertTrue(bytesPerSubscriber < 1024, "Подписка занимает " + bytesPerSubscriber + " байт");
+
+        RecordingSink sink = new RecordingSink();
+        feedSubscriptions.subscribe(count / 2, null, sink, NO_REPLAY);
+        feedSubscriptions.publish(List.of(createFeed(1, count / 2)));
+        assertEquals(List.of(1), sink.awaitEventIds(1));
+
+        subscriptions.forEach(FeedSubscriptions.Subscription::cancel);
+        assertEquals(1, feedSubscriptions.size());
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Feed createFeed(int eventId, int userId) {
+        return new Feed(eventId, (long) eventId, userId, "LIKE", "ADD", eventId);
+    }
+
+    static class RecordingSink implements FeedSubscriptions.Sink {
+        final List<Integer> eventIds = new CopyOnWriteArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void send(Feed feed) {
+            eventIds.add(feed.getEventId());
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        List<Integer> awaitEventIds(int count) throws InterruptedException {
+            for (int i = 0; i < 500 && eventIds.size() < count; i++) {
+                Thread.sleep(10);
+            }
+            return List.copyOf(eventIds);
+        }
+    }
+
+    static class IdleSink implements FeedSubscriptions.Sink {
+        @Override
+        public void send(Feed feed) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.storage.feed.FeedWriter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.feed.FeedSubscriptions.FeedSubscriptions;
+import ru.yandex.practicum.filmorate.storage.feed.FeedTimeline.FeedTimeline;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph.FriendGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedWriterTest {
+
+    JdbcTemplate jdbcTemplate;
+    FeedWriter feedWriter;
+
+    @BeforeEach
+    public void createDatabase() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:feed" + System.nanoTime() +
+                ";DB_CLOSE_DELAY=-1", "sa", "");
+        new SchemaMigrator(dataSource).migrate();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) " +
+                "VALUES (1, 'mail@yandex.ru', 'login', 'Имя', '1990-01-01');");
+        feedWriter = new FeedWriter(jdbcTemplate, new FeedTimeline(jdbcTemplate,
+                new FriendGraph(jdbcTemplate, FriendGraph.DEFAULT_FAN_OUT), FeedTimeline.DEFAULT_CAPACITY,
+                FeedTimeline.DEFAULT_CELEBRITY_FOLLOWERS), new FeedSubscriptions(FeedSubscriptions.DEFAULT_BUFFER_SIZE,
+                FeedSubscriptions.DEFAULT_DISPATCH_THREADS), 4, 3, 20);
+    }
+
+    @AfterEach
+    public void stopWriter() {
+        feedWriter.stop();
+    }
+
+    @Test
+    public void checkEventsAreWrittenInBatchesAndFlushed() {
+        feedWriter.start();
+        List<Feed> feeds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Feed feed = new Feed(0, (long) i, 1, "LIKE", "ADD", i);
+            feeds.add(feed);
+            feedWriter.submit(feed);
+        }
+        feedWriter.flush();
+
+        assertEquals(10, countFeed());
+        for (int i = 1; i < feeds.size(); i++) {
+            assertTrue(feeds.get(i).getEventId() > feeds.get(i - 1).getEventId());
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), jdbcTemplate.queryForList("SELECT entity_id FROM feed " +
+                "ORDER BY event_id;", Integer.class));
+    }
+
+    @Test
+    public void checkEventsAreWrittenByTimeAndOnStop() throws InterruptedException {
+        feedWriter.start();
+        feedWriter.submit(new Feed(0, 1L, 1, "LIKE", "ADD", 1));
+        for (int i = 0; i < 100 && countFeed() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, countFeed());
+
+        feedWriter.submit(new Feed(0, 2L, 1, "LIKE", "ADD", 2));
+        feedWriter.submit(new Feed(0, 3L, 1, "LIKE", "ADD", 3));
+        feedWriter.stop();
+        assertEquals(3, countFeed());
+
+        feedWriter.submit(new Feed(0, 4L, 1, "LIKE", "ADD", 4));
+        assertEquals(4, countFeed());
+    }
+
+    @Test
+    public void checkFailedBatchKeepsValidEvents() {
+        feedWriter.start();
+        feedWriter.submit(new Feed(0, 1L, 1, "LIKE", "ADD", 1));
+        feedWriter.submit(new Feed(0, 2L, 999, "LIKE", "ADD", 2));
+        feedWriter.submit(new Feed(0, 3L, 1, "LIKE", "ADD", 3));
+        feedWriter.flush();
+
+        assertEquals(List.of(1, 3), jdbcTemplate.queryForList("SELECT entity_id FROM feed ORDER BY event_id;",
+                Integer.class));
+    }
+
+    private int countFeed() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM feed;", Integer.class);
+    }
+}
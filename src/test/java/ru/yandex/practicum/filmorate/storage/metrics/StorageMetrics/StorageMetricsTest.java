@@ -0,0 +1,248 @@
+package ru.yandex.practicum.filmorate.storage.metrics.StorageMetrics;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ru.yandex.practicum.filmorate.dao.DirectorDbStorage;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.director.DirectorStorage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.metrics.MeteredJdbcTemplate.MeteredJdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.metrics.StorageMetricsAdvisor.StorageMetricsAdvisor;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageMetricsTest {
+
+    StorageMetrics storageMetrics;
+    JdbcTemplate jdbcTemplate;
+    DirectorStorage directorStorage;
+
+    @BeforeEach
+    public void createStorage() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:metrics" + System.nanoTime() +
+                ";DB_CLOSE_DELAY=-1", "sa", "");
+        new SchemaMigrator(dataSource).migrate();
+        storageMetrics = new StorageMetrics();
+        jdbcTemplate = new MeteredJdbcTemplate(dataSource, storageMetrics);
+        directorStorage = proxy(new DirectorDbStorage(jdbcTemplate));
+    }
+
+    @Test
+    public void checkCallsStatementsAndRowsAreRecordedPerMethod() {
+        for (int i = 1; i <= 3; i++) {
+            directorStorage.addDirector(new Director(0, "Режиссёр " + i));
+        }
+        assertEquals(3, directorStorage.getDirectors().size());
+        directorStorage.updateDirector(new Director(1, "Новое имя"));
+        assertThrows(EmptyResultDataAccessException.class, () -> directorStorage.getDirector(999));
+
+        String metrics = storageMetrics.scrape();
+
+        assertSample(metrics, "filmorate_storage_call_duration_seconds_count", "addDirector", 3);
+        assertSample(metrics, "filmorate_storage_statements_total", "addDirector", 3);
+        assertSample(metrics, "filmorate_storage_call_duration_seconds_count", "getDirectors", 1);
+        assertSample(metrics, "filmorate_storage_statements_total", "getDirectors", 1);
+        assertSample(metrics, "filmorate_storage_rows_total", "getDirectors", 3);
+        assertSample(metrics, "filmorate_storage_statements_total", "updateDirector", 3);
+        assertSample(metrics, "filmorate_storage_rows_total", "updateDirector", 2);
+        assertSample(metrics, "filmorate_storage_errors_total", "updateDirector", 0);
+        assertSample(metrics, "filmorate_storage_errors_total", "getDirector", 1);
+        assertSample(metrics, "filmorate_storage_rows_total", "getDirector", 0);
+    }
+
+    @Test
+    public void checkNestedCallsAndRowCallbacksAreCountedInOuterCall() {
+        for (int i = 1; i <= 4; i++) {
+            directorStorage.addDirector(new Director(0, "Режиссёр " + i));
+        }
+        DirectorStorage outer = proxy(new NestedDirectorStorage(jdbcTemplate, directorStorage));
+
+        assertEquals(4, outer.getDirectors().size());
+
+        String metrics = storageMetrics.scrape();
+        assertSample(metrics, "filmorate_storage_statements_total", "NestedDirectorStorage", "getDirectors", 5);
+        assertSample(metrics, "filmorate_storage_rows_total", "NestedDirectorStorage", "getDirectors", 8);
+        assertSample(metrics, "filmorate_storage_statements_total", "DirectorDbStorage", "getDirector", 4);
+        assertSample(metrics, "filmorate_storage_rows_total", "DirectorDbStorage", "getDirector", 4);
+    }
+
+    @Test
+    public void checkHistogramIsExposedInPrometheusFormat() {
+        directorStorage.getDirectors();
+        directorStorage.getDirectors();
+
+        List<String> lines = Arrays.asList(storageMetrics.scrape().split("\n"));
+
+        assertTrue(lines.contains("# TYPE filmorate_storage_call_duration_seconds histogram"));
+        assertTrue(lines.contains("# TYPE filmorate_storage_statements_total counter"));
+        List<Long> buckets = lines.stream()
+                .filter(line -> line.startsWith("filmorate_storage_call_duration_seconds_bucket{storage=" +
+                        "\"DirectorDbStorage\",method=\"getDirectors\""))
+                .map(line -> Long.parseLong(line.substring(line.lastIndexOf(' ') + 1)))
+                .collect(Collectors.toList());
+        assertEquals(14, buckets.size());
+        for (int i = 1; i < buckets.size(); i++) {
+            assertTrue(buckets.get(i) >= buckets.get(i - 1));
+        }
+        assertEquals(2, buckets.get(buckets.size() - 1));
+        assertTrue(lines.contains("filmorate_storage_call_duration_seconds_bucket{storage=\"DirectorDbStorage\"," +
+                "method=\"getDirectors\",le=\"+Inf\"} 2"));
+        assertTrue(lines.contains("filmorate_storage_call_duration_seconds_bucket{storage=\"DirectorDbStorage\"," +
+                "method=\"getDirectors\",le=\"0.0005\"} " + buckets.get(0)));
+    }
+
+    @Test
+    public void checkFilmCacheCountersAreExposed() {
+        FilmCache filmCache = new FilmCache(1);
+        IntFunction<Film> loader = id -> Film.builder().id(id).name("Фильм " + id).build();
+        filmCache.get(1, loader);
+        filmCache.get(1, loader);
+        filmCache.get(2, loader);
+        filmCache.cleanUp();
+
+        List<String> lines = Arrays.asList(storageMetrics.scrape(filmCache).split("\n"));
+
+        assertTrue(lines.contains("# TYPE filmorate_film_cache_hits_total counter"));
+        assertTrue(lines.contains("filmorate_film_cache_hits_total 1"));
+        assertTrue(lines.contains("filmorate_film_cache_misses_total 2"));
+        assertTrue(lines.contains("filmorate_film_cache_evictions_total 1"));
+        assertTrue(lines.contains("# TYPE filmorate_film_cache_size gauge"));
+        assertTrue(lines.contains("filmorate_film_cache_size 1"));
+    }
+
+    @Test
+    public void checkRecordingDoesNotAllocate() throws Throwable {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        MethodInvocation invocation = new CountingInvocation(storageMetrics, directorStorage,
+                DirectorStorage.class.getMethod("getDirectors"));
+        for (int i = 0; i < 100_000; i++) {
+            storageMetrics.invoke(invocation);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            storageMetrics.invoke(invocation);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated < 10_000, "На 100 000 вызовов выделено " + allocated + " байт");
+        assertSample(storageMetrics.scrape(), "filmorate_storage_statements_total", "getDirectors", 200_000);
+    }
+
+    private DirectorStorage proxy(DirectorStorage storage) {
+        ProxyFactory proxyFactory = new ProxyFactory(storage);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvisor(new StorageMetricsAdvisor(storageMetrics));
+        return (DirectorStorage) proxyFactory.getProxy();
+    }
+
+    private static void assertSample(String metrics, String name, String method, long value) {
+        assertSample(metrics, name, "DirectorDbStorage", method, value);
+    }
+
+    private static void assertSample(String metrics, String name, String storage, String method, long value) {
+        String sample = name + "{storage=\"" + storage + "\",method=\"" + method + "\"} " + value;
+        assertTrue(Arrays.asList(metrics.split("\n")).contains(sample), sample + " нет в\n" + metrics);
+    }
+
+    /**
+     * Хранилище, которое читает режиссёров через RowCallbackHandler и для каждого вызывает другое хранилище.
+     */
+    static class NestedDirectorStorage implements DirectorStorage {
+        private final JdbcTemplate jdbcTemplate;
+        private final DirectorStorage directorStorage;
+
+        NestedDirectorStorage(JdbcTemplate jdbcTemplate, DirectorStorage directorStorage) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.directorStorage = directorStorage;
+        }
+
+        @Override
+        public List<Director> getDirectors() {
+            List<Director> directors = new ArrayList<>();
+            jdbcTemplate.query("SELECT director_id FROM directors ORDER BY director_id;",
+                    (RowCallbackHandler) rs -> directors.add(directorStorage.getDirector(rs.getInt("director_id"))));
+            return directors;
+        }
+
+        @Override
+        public Director addDirector(Director director) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Director updateDirector(Director director) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Director getDirector(int id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean deleteDirector(int id) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Вызов без SQL, который только сообщает о запросе, как это делает MeteredJdbcTemplate.
+     */
+    static class CountingInvocation implements MethodInvocation {
+        private final StorageMetrics storageMetrics;
+        private final Object target;
+        private final Method method;
+
+        CountingInvocation(StorageMetrics storageMetrics, Object target, Method method) {
+            this.storageMetrics = storageMetrics;
+            this.target = target;
+            this.method = method;
+        }
+
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+
+        @Override
+        public Object[] getArguments() {
+            return new Object[0];
+        }
+
+        @Override
+        public Object proceed() {
+            storageMetrics.countStatement();
+            return null;
+        }
+
+        @Override
+        public Object getThis() {
+            return target;
+        }
+
+        @Override
+        public AccessibleObject getStaticPart() {
+            return method;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaMigratorTest {
+
+    DriverManagerDataSource dataSource;
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void createDatabase() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:migration" + System.nanoTime() + ";DB_CLOSE_DELAY=-1",
+                "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Test
+    public void checkMigrationsOnEmptyDatabase() {
+        SchemaMigrator schemaMigrator = new SchemaMigrator(dataSource);
+
+        assertEquals(10, schemaMigrator.migrate());
+        assertEquals(5, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ratings;", Integer.class));
+        assertEquals(0, schemaMigrator.migrate());
+        assertEquals(0, new SchemaMigrator(dataSource).migrate());
+    }
+
+    @Test
+    public void checkMigrationsOnPopulatedLegacyDatabase() {
+        ResourceDatabasePopulator legacyPopulator = new ResourceDatabasePopulator(
+                new ClassPathResource("db/legacy/schema.sql"), new ClassPathResource("db/legacy/data.sql"));
+        legacyPopulator.setSqlScriptEncoding("UTF-8");
+        legacyPopulator.execute(dataSource);
+        jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) " +
+                "VALUES (1, 'mail@yandex.ru', 'login', 'Имя', '1990-01-01');");
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id) " +
+                "VALUES (1, 'Фильм', 'Описание', '2000-01-01', 100, 1), (2, 'Другой', 'Описание', '2001-01-01', " +
+                "90, 2);");
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (1, 1), (1, 1);");
+        jdbcTemplate.update("INSERT INTO directors (director_id, name) VALUES (1, 'Режиссёр');");
+        jdbcTemplate.update("INSERT INTO film_director (film_id, director_id) VALUES (1, 1), (1, 1);");
+        jdbcTemplate.update("INSERT INTO reviews (content, is_positive, user_id, film_id, useful) " +
+                "VALUES ('Отзыв', TRUE, 1, 1, 0);");
+
+        assertEquals(10, new SchemaMigrator(dataSource).migrate());
+
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM likes;", Integer.class));
+        assertEquals(List.of(1, 0), jdbcTemplate.queryForList("SELECT like_count FROM films ORDER BY film_id;",
+                Integer.class));
+        assertThrows(RuntimeException.class, () -> jdbcTemplate.update("INSERT INTO likes (film_id, user_id) " +
+                "VALUES (1, 1);"));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_co_likes;", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_director;", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reviews;", Integer.class));
+        List<String> indexes = jdbcTemplate.queryForList("SELECT LOWER(index_name) FROM information_schema.indexes;",
+                String.class);
+        assertTrue(indexes.containsAll(List.of("likes_user_idx", "friends_friend_idx", "feed_user_idx",
+                "reviews_film_useful_idx", "film_director_director_idx", "films_like_count_idx",
+                "film_co_likes_top_idx")));
+        assertThrows(RuntimeException.class, () -> jdbcTemplate.update("INSERT INTO film_director (film_id, " +
+                "director_id) VALUES (1, 1);"));
+        assertEquals(0, new SchemaMigrator(dataSource).migrate());
+    }
+
+    @Test
+    public void checkChangedMigrationIsRejected() {
+        new SchemaMigrator(dataSource).migrate();
+        jdbcTemplate.update("UPDATE schema_version SET checksum = checksum + 1 WHERE version = 3;");
+
+        assertThrows(IllegalStateException.class, () -> new SchemaMigrator(dataSource).migrate());
+    }
+}
@@ -0,0 +1,252 @@
+package ru.yandex.practicum.filmorate.storage.review.ReviewUsefulCounter;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dao.FeedDbStorage;
+import ru.yandex.practicum.filmorate.dao.FilmDbStorage;
+import ru.yandex.practicum.filmorate.dao.ReviewDbStorage;
+import ru.yandex.practicum.filmorate.dao.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.migration.SchemaMigrator.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReviewUsefulCounterTest {
+
+    static final int THREADS = 8;
+    static final int VOTERS = 4000;
+
+    HikariDataSource dataSource;
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void createDatabase() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:reviews" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(THREADS);
+        new SchemaMigrator(dataSource).migrate();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id, " +
+                "like_count) VALUES (1, 'Фильм', 'Описание', '2000-01-01', 100, 1, 0);");
+        List<Object[]> users = new ArrayList<>();
+        for (int id = 1; id <= VOTERS; id++) {
+            users.add(new Object[]{id, "user" + id + "@yandex.ru", "user" + id});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) " +
+                "VALUES (?, ?, ?, 'Имя', '1990-01-01');", users);
+        jdbcTemplate.update("INSERT INTO reviews (review_id, content, is_positive, user_id, film_id, useful) " +
+                "VALUES (1, 'Отзыв', TRUE, 1, 1, 0), (2, 'Отзыв', TRUE, 1, 1, 0);");
+    }
+
+    @AfterEach
+    public void closeDatabase() {
+        dataSource.close();
+    }
+
+    /**
+     * Все голоса идут за один отзыв из нескольких потоков. Рейтинг копится в счётчике и попадает в строку отзыва
+     * только при сбросе; отсутствие ожидания на строке проверяет checkVotesDoNotWaitForLockedReviewRow.
+     */
+    @Test
+    public void checkConcurrentVotesForOneReviewAreCountedAndFlushed() throws Exception {
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(jdbcTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+
+        voteConcurrently(userId -> reviewDbStorage.addLikeOfReview(2, userId));
+
+        assertEquals(VOTERS, reviewDbStorage.getReview(2).getUseful());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 2;",
+                Integer.class));
+        assertEquals(1, reviewUsefulCounter.flush());
+        assertEquals(VOTERS, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 2;",
+                Integer.class));
+        assertEquals(VOTERS, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM review_votes WHERE review_id = 2;",
+                Integer.class));
+        assertEquals(0, reviewUsefulCounter.flush());
+        assertEquals(VOTERS, reviewDbStorage.getReview(2).getUseful());
+    }
+
+    @Test
+    public void checkFlushedCountersAreDropped() {
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(jdbcTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+        reviewDbStorage.addLikeOfReview(1, 1);
+        reviewDbStorage.addDislikeOfReview(2, 1);
+        assertEquals(2, reviewUsefulCounter.size());
+
+        assertEquals(2, reviewUsefulCounter.flush());
+        assertEquals(0, reviewUsefulCounter.size());
+        assertEquals(1, reviewDbStorage.getReview(1).getUseful());
+        assertEquals(-1, reviewDbStorage.getReview(2).getUseful());
+
+        reviewDbStorage.deleteDislikeOfReview(2, 1);
+        assertEquals(1, reviewUsefulCounter.size());
+        assertEquals(0, reviewDbStorage.getReview(2).getUseful());
+        assertEquals(1, reviewUsefulCounter.flush());
+        assertEquals(0, reviewUsefulCounter.size());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 2;",
+                Integer.class));
+    }
+
+    /**
+     * Голоса ставятся и снимаются, пока сброс идёт без пауз и удаляет записанные счётчики. Голос, попавший
+     * в удаляемый счётчик, не должен потеряться.
+     */
+    @Test
+    public void checkVotesAreNotLostWhileCountersAreDropped() throws Exception {
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(jdbcTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+        AtomicBoolean voting = new AtomicBoolean(true);
+        Thread flusher = new Thread(() -> {
+            while (voting.get()) {
+                reviewUsefulCounter.flush();
+            }
+        });
+        flusher.start();
+        try {
+            voteConcurrently(userId -> {
+                reviewDbStorage.addLikeOfReview(2, userId);
+                reviewDbStorage.deleteLikeOfReview(2, userId);
+                reviewDbStorage.addLikeOfReview(2, userId);
+            });
+        } finally {
+            voting.set(false);
+            flusher.join();
+        }
+
+        assertEquals(VOTERS, reviewDbStorage.getReview(2).getUseful());
+        reviewUsefulCounter.flush();
+        assertEquals(0, reviewUsefulCounter.size());
+        assertEquals(VOTERS, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 2;",
+                Integer.class));
+    }
+
+    /**
+     * Чтение, пришедшее между записью изменений в базу и их отметкой в счётчике, ждёт конца записи,
+     * а не складывает записанное с ним же в счётчике.
+     */
+    @Test
+    public void checkReadDuringFlushDoesNotCountTwice() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JdbcTemplate pausingTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                int[] updated = super.batchUpdate(sql, batchArgs);
+                written.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return updated;
+            }
+        };
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(pausingTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+        for (int userId = 1; userId <= 10; userId++) {
+            reviewDbStorage.addLikeOfReview(2, userId);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> flush = executor.submit(reviewUsefulCounter::flush);
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+            Future<Integer> read = executor.submit(() -> reviewDbStorage.getReview(2).getUseful());
+            assertThrows(TimeoutException.class, () -> read.get(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertEquals(1, flush.get(5, TimeUnit.SECONDS));
+            assertEquals(10, read.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Пока строка отзыва заблокирована другой транзакцией, голоса через счётчик проходят, а голоса с обновлением
+     * строки ждут её освобождения.
+     */
+    @Test
+    public void checkVotesDoNotWaitForLockedReviewRow() throws Exception {
+        ReviewUsefulCounter reviewUsefulCounter = new ReviewUsefulCounter(jdbcTemplate);
+        ReviewDbStorage reviewDbStorage = new ReviewDbStorage(jdbcTemplate, new FilmDbStorage(jdbcTemplate),
+                new UserDbStorage(jdbcTemplate), new FeedDbStorage(jdbcTemplate), reviewUsefulCounter);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE reviews SET content = 'Правка' WHERE review_id IN (1, 2);");
+            }
+
+            Future<?> rowVote = executor.submit(() -> voteWithRowUpdate(transactionTemplate, 1, 1));
+            Future<?> counterVotes = executor.submit(() -> {
+                for (int userId = 1; userId <= 100; userId++) {
+                    reviewDbStorage.addLikeOfReview(2, userId);
+                }
+            });
+            counterVotes.get(5, TimeUnit.SECONDS);
+            assertThrows(TimeoutException.class, () -> rowVote.get(200, TimeUnit.MILLISECONDS));
+
+            connection.commit();
+            rowVote.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(100, reviewDbStorage.getReview(2).getUseful());
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT useful FROM reviews WHERE review_id = 1;",
+                Integer.class));
+    }
+
+    private void voteWithRowUpdate(TransactionTemplate transactionTemplate, int reviewId, int userId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO review_votes (review_id, user_id, vote) VALUES (?, ?, 1);",
+                    reviewId, userId);
+            jdbcTemplate.update("UPDATE reviews SET useful = useful + 1 WHERE review_id = ?;", reviewId);
+        });
+    }
+
+    private void voteConcurrently(IntConsumer vote) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < VOTERS; i += THREADS) {
+                        vote.accept(i + 1);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+MERGE INTO genres (genre_id, name) VALUES (1, 'Комедия'),
+                                          (2, 'Драма'),
+                                          (3, 'Мультфильм'),
+                                          (4, 'Триллер'),
+                                          (5, 'Документальный'),
+                                          (6, 'Боевик');
+
+MERGE INTO ratings (rating_id, name) VALUES (1, 'G'),
+                                            (2, 'PG'),
+                                            (3, 'PG-13'),
+                                            (4, 'R'),
+                                            (5, 'NC-17');
\ No newline at end of file